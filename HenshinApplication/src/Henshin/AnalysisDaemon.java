@@ -0,0 +1,298 @@
+package Henshin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.eclipse.emf.henshin.model.Rule;
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * A long-running analysis process that keeps EMF, the loaded modules and the prepared rules in memory
+ * and answers analysis requests over a local socket, so that interactive tools pay for the start-up,
+ * the rule preparation and the JIT warm-up only once. Both detections run their pairs on one shared
+ * worker pool, so concurrent requests share the processors instead of oversubscribing them.
+ *
+ * Clients connect to the loopback interface and send one request per line; every request is answered
+ * with one line of JSON:
+ * <ul>
+ * <li>{@code <kind> <folder> [--rules <name,...>] [--granularities <granularity,...>]} analyses the
+ * rules of a folder, or the given subset of them, e.g.
+ * {@code conflict ../bank --rules deleteManager,createAccount --granularities binary}. The answer
+ * holds the time in milliseconds and the result matrix in the JSON export format:
+ * {@code {"milliseconds":2.41,"matrix":{"kind":"conflict",...}}}.</li>
+ * <li>{@code status} lists the folders whose prepared rules are kept.</li>
+ * </ul>
+ * Failed requests are answered with {@code {"error":"..."}}. The prepared rules of a folder are
+ * reused as long as its modules and metamodels are unchanged, see {@link PreparedRuleCache#key}.
+ */
+public class AnalysisDaemon {
+
+	/**
+	 * The default port.
+	 */
+	public static final int DEFAULT_PORT = 8643;
+
+	private static final Logger logger = Logger.getLogger(AnalysisDaemon.class.getName());
+
+	private final HenshinAnalysisDriver driver;
+
+	private final ExecutorService workers;
+
+	private final ExecutorService connections = Executors.newCachedThreadPool();
+
+	// folder and source key -> prepared rules, being loaded while not done
+	private final ConcurrentHashMap<String, CompletableFuture<List<Rule>>> rules =
+			new ConcurrentHashMap<String, CompletableFuture<List<Rule>>>();
+
+	// folder -> stamp and key of its sources when last checked
+	private final ConcurrentHashMap<String, Sources> sources = new ConcurrentHashMap<String, Sources>();
+
+	/**
+	 * Creates a daemon analysing with the configured detections of a driver. Both detections are
+	 * switched to one shared pool with the number of threads of the conflict detection.
+	 *
+	 * @param driver The driver holding the configured detections.
+	 */
+	public AnalysisDaemon(HenshinAnalysisDriver driver) {
+		this.driver = driver;
+		this.workers = Executors.newFixedThreadPool(driver.getConflictDetection().getEngine().getThreads());
+		driver.getConflictDetection().getEngine().setExecutor(workers);
+		driver.getDependencyDetection().getEngine().setExecutor(workers);
+		HenshinAnalysisDriver.registerFactories();
+	}
+
+	/**
+	 * Returns the prepared rules of a folder, loading and preparing them only if the folder is new or
+	 * its sources changed. The sources are only hashed if their sizes or modification times changed.
+	 * Folders are loaded independently of each other; concurrent requests for a folder that is being
+	 * loaded wait for that load.
+	 *
+	 * @param folder The directory path where the Henshin modules are located.
+	 * @return The prepared rules.
+	 * @throws IOException If the sources cannot be read.
+	 */
+	public List<Rule> getRules(String folder) throws IOException {
+		String stamp = PreparedRuleCache.stamp(Paths.get(folder));
+		Sources checked = sources.get(folder);
+		if (checked == null || !checked.stamp.equals(stamp)) {
+			Sources previous = checked;
+			checked = new Sources(stamp, PreparedRuleCache.key(Paths.get(folder)));
+			sources.put(folder, checked);
+			if (previous != null && !previous.key.equals(checked.key))
+				rules.remove(folder + "\n" + previous.key);
+		}
+
+		String entry = folder + "\n" + checked.key;
+		CompletableFuture<List<Rule>> loading = new CompletableFuture<List<Rule>>();
+		CompletableFuture<List<Rule>> prepared = rules.putIfAbsent(entry, loading);
+		if (prepared == null) {
+			long start = System.nanoTime();
+			try {
+				loading.complete(List.copyOf(driver.getConflictDetection().getPreparedRules(folder)));
+			} catch (RuntimeException e) {
+				rules.remove(entry, loading);
+				loading.completeExceptionally(e);
+				throw e;
+			}
+			System.out.println("Loaded and prepared " + loading.join().size() + " rules of " + folder + " in "
+					+ (System.nanoTime() - start) / 1000000 + " ms.");
+			return loading.join();
+		}
+		try {
+			return prepared.join();
+		} catch (CompletionException e) {
+			throw (RuntimeException) e.getCause();
+		}
+	}
+
+	/**
+	 * Analyses the rules of a folder with an engine of its own, configured like the engine of the
+	 * driver's detection of that kind and running its pairs on the shared worker pool.
+	 *
+	 * @param kind The kind of analysis.
+	 * @param folder The directory path where the Henshin modules are located.
+	 * @param subset The names of the rules to analyse, or null for all rules.
+	 * @param granularities The granularities to compute.
+	 * @return The result matrix.
+	 * @throws IOException If the sources cannot be read.
+	 * @throws IllegalArgumentException If a rule of the subset is not found.
+	 */
+	public ResultMatrix analyse(AnalysisKind kind, String folder, Set<String> subset, List<Granularity> granularities)
+			throws IOException {
+		List<Rule> selected = getRules(folder);
+		if (subset != null) {
+			selected = selected.stream().filter(rule -> subset.contains(rule.getName())).collect(Collectors.toList());
+			Set<String> missing = new HashSet<String>(subset);
+			selected.forEach(rule -> missing.remove(rule.getName()));
+			if (!missing.isEmpty())
+				throw new IllegalArgumentException("Unknown rules " + missing + " in " + folder);
+		}
+		MultiGranularEngine template = kind == AnalysisKind.CONFLICT ? driver.getConflictDetection().getEngine()
+				: driver.getDependencyDetection().getEngine();
+		return new MultiGranularEngine(template).analyse(granularities, selected);
+	}
+
+	/**
+	 * Answers one request line.
+	 *
+	 * @param request The request, see the class description.
+	 * @return The answer as one line of JSON, without line break.
+	 */
+	public String answer(String request) {
+		try {
+			String[] arguments = request.trim().split("\\s+");
+			if (arguments.length == 1 && arguments[0].equals("status"))
+				return status();
+			if (arguments.length < 2)
+				throw new IllegalArgumentException("Expected <kind> <folder> [options] but got " + request);
+			AnalysisKind kind = AnalysisKind.fromLabel(arguments[0]);
+			String folder = arguments[1];
+			Set<String> subset = null;
+			List<Granularity> granularities = HenshinConflictDetection.granularities;
+			for (int i = 2; i < arguments.length; i++) {
+				if (arguments[i].equals("--rules") && i + 1 < arguments.length)
+					subset = new HashSet<String>(Arrays.asList(arguments[++i].split(",")));
+				else if (arguments[i].equals("--granularities") && i + 1 < arguments.length)
+					granularities = Arrays.stream(arguments[++i].split(",")).map(Granularity::valueOf)
+							.collect(Collectors.toList());
+				else
+					throw new IllegalArgumentException("Unknown option " + arguments[i]);
+			}
+
+			long start = System.nanoTime();
+			ResultMatrix results = analyse(kind, folder, subset, granularities);
+			long finished = System.nanoTime();
+			StringWriter matrix = new StringWriter();
+			ResultMatrixIO.writeJson(results, matrix);
+			return String.format(Locale.ROOT, "{\"milliseconds\":%.3f,\"matrix\":%s}", (finished - start) / 1e6,
+					matrix.toString().trim());
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.FINE, "Request failed: " + request, e);
+			return "{\"error\":" + ResultMatrixIO.json(String.valueOf(e.getMessage())) + "}";
+		}
+	}
+
+	private String status() {
+		List<String> folders = new ArrayList<String>();
+		sources.forEach((folder, checked) -> {
+			CompletableFuture<List<Rule>> prepared = rules.get(folder + "\n" + checked.key);
+			if (prepared != null && prepared.isDone() && !prepared.isCompletedExceptionally())
+				folders.add("{\"folder\":" + ResultMatrixIO.json(folder) + ",\"rules\":" + prepared.join().size() + "}");
+		});
+		return "{\"folders\":" + folders.stream().collect(Collectors.joining(",", "[", "]")) + "}";
+	}
+
+	/**
+	 * Accepts connections on the loopback interface and answers their requests until the thread is
+	 * interrupted or the socket fails. Each connection is served by a thread of its own; the analyses
+	 * share the worker pool.
+	 *
+	 * @param port The port.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public void serve(int port) throws IOException {
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			System.out.println("Accepting analysis requests on localhost:" + server.getLocalPort());
+			while (!Thread.currentThread().isInterrupted()) {
+				Socket socket = server.accept();
+				connections.execute(() -> serve(socket));
+			}
+		} finally {
+			connections.shutdownNow();
+			workers.shutdownNow();
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket connection = socket;
+				BufferedReader in = new BufferedReader(
+						new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+				Writer out = new BufferedWriter(
+						new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8))) {
+			for (String request = in.readLine(); request != null; request = in.readLine()) {
+				if (request.isBlank())
+					continue;
+				out.write(answer(request) + "\n");
+				out.flush();
+			}
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Connection closed", e);
+		}
+	}
+
+	/**
+	 * Starts the daemon on port {@value #DEFAULT_PORT} or the one given by {@code --port <n>}. Accepts
+	 * the analysis options of {@link HenshinAnalysisDriver}, except that {@code --ndjson},
+	 * {@code --shard} and {@code --checkpoint} have no effect on the requests; any other argument names a
+	 * folder whose rules are loaded and analysed once at start-up to warm up the daemon.
+	 *
+	 * @param args the command-line arguments.
+	 */
+	public static void main(String[] args) throws IOException {
+		HenshinAnalysisDriver driver = new HenshinAnalysisDriver();
+		int port = DEFAULT_PORT;
+		List<String> preload = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--port")) {
+				port = Integer.parseInt(args[++i]);
+				continue;
+			}
+			int last = driver.parseOption(args, i);
+			if (last < 0)
+				preload.add(args[i]);
+			else
+				i = last;
+		}
+		driver.applyMeasurement();
+
+		AnalysisDaemon daemon = new AnalysisDaemon(driver);
+		for (String folder : preload) {
+			long start = System.nanoTime();
+			for (AnalysisKind kind : AnalysisKind.values())
+				daemon.analyse(kind, folder, null, HenshinConflictDetection.granularities);
+			System.out.println("Warmed up on " + folder + " in " + (System.nanoTime() - start) / 1000000 + " ms.");
+		}
+		daemon.serve(port);
+	}
+
+	/**
+	 * The stamp and key of the sources of a folder, see {@link PreparedRuleCache#stamp} and
+	 * {@link PreparedRuleCache#key}.
+	 */
+	private static final class Sources {
+
+		final String stamp;
+
+		final String key;
+
+		Sources(String stamp, String key) {
+			this.stamp = stamp;
+			this.key = key;
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package Henshin;
+
+import org.eclipse.emf.henshin.model.Rule;
+import org.eclipse.emf.henshin.multicda.cda.ConflictAnalysis;
+import org.eclipse.emf.henshin.multicda.cda.DependencyAnalysis;
+import org.eclipse.emf.henshin.multicda.cda.MultiGranularAnalysis;
+
+/**
+ * The kinds of pairwise analysis supported by the {@link MultiGranularEngine}.
+ */
+public enum AnalysisKind {
+
+	/**
+	 * Checks whether applying the first rule can disable the second one.
+	 */
+	CONFLICT("conflict") {
+		@Override
+		MultiGranularAnalysis construct(Rule r1, Rule r2) {
+			return new ConflictAnalysis(r1, r2);
+		}
+	},
+
+	/**
+	 * Checks whether applying the first rule can enable the second one.
+	 */
+	DEPENDENCY("dependency") {
+		@Override
+		MultiGranularAnalysis construct(Rule r1, Rule r2) {
+			return new DependencyAnalysis(r1, r2);
+		}
+	};
+
+	private final String label;
+
+	private AnalysisKind(String label) {
+		this.label = label;
+	}
+
+	/**
+	 * Creates the Henshin analysis of this kind for the given rule pair. The constructors of both
+	 * analyses reset the static {@link ConflictAnalysis#unnamedNodeID} and use it without
+	 * synchronisation to name the unnamed nodes of the prepared rule copies, and the reasons found later
+	 * are compared by these names. Construction is therefore serialised on {@link ConflictAnalysis},
+	 * while the computations on the constructed analyses can run in parallel.
+	 *
+	 * @param r1 The first rule.
+	 * @param r2 The second rule.
+	 * @return A fresh analysis of the pair.
+	 */
+	public MultiGranularAnalysis createAnalysis(Rule r1, Rule r2) {
+		synchronized (ConflictAnalysis.class) {
+			return construct(r1, r2);
+		}
+	}
+
+	abstract MultiGranularAnalysis construct(Rule r1, Rule r2);
+
+	/**
+	 * @return The lower-case name of this kind, e.g. "conflict".
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @param label The lower-case name of a kind, see {@link #getLabel()}.
+	 * @return The kind with the given label.
+	 * @throws IllegalArgumentException If there is no kind with the given label.
+	 */
+	public static AnalysisKind fromLabel(String label) {
+		for (AnalysisKind kind : values()) {
+			if (kind.label.equals(label))
+				return kind;
+		}
+		throw new IllegalArgumentException("Unknown analysis kind " + label);
+	}
+
+}
@@ -0,0 +1,209 @@
+package Henshin;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes log output asynchronously. Callers only put their text into a queue; a dedicated writer
+ * thread appends it to one buffered writer per output (the console or a log file), so files are
+ * opened once per run instead of once per logged cell. An output is flushed whenever a line is
+ * complete, i.e. once per matrix row, when {@link #flush()} is called and when the writer is closed.
+ * {@link #flush()} marks the end of a run and also closes the log files, which are opened again
+ * when more text is appended to them. The writer is closed automatically when the JVM shuts down.
+ *
+ * Output that cannot be written, e.g. because the log directory does not exist, is reported on the
+ * standard error stream and skipped, as the other output is still written. The same holds for
+ * output queued after the writer was closed, e.g. by a worker still running during shutdown.
+ */
+public class AsyncLogWriter implements AutoCloseable {
+
+	private static final Entry CLOSE = new Entry(null, null, null);
+
+	// milliseconds between two checks whether the writer thread is still alive
+	private static final long FLUSH_POLL = 100;
+
+	private static AsyncLogWriter shared;
+
+	private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+
+	private final Map<Path, Writer> writers = new HashMap<Path, Writer>();
+
+	private final Writer console = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()));
+
+	private final Thread thread;
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates the writer and starts its writer thread.
+	 */
+	public AsyncLogWriter() {
+		thread = new Thread(this::drain, "log-writer");
+		thread.setDaemon(true);
+		thread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+	}
+
+	/**
+	 * Returns the writer shared by the detections of this process, creating it on first use, so that
+	 * the process runs one writer thread with one shutdown hook however many detections it creates.
+	 *
+	 * @return The shared writer.
+	 */
+	public static synchronized AsyncLogWriter shared() {
+		if (shared == null)
+			shared = new AsyncLogWriter();
+		return shared;
+	}
+
+	/**
+	 * Queues text for the console.
+	 *
+	 * @param text The text to print.
+	 */
+	public void print(String text) {
+		enqueue(new Entry(null, text, null));
+	}
+
+	/**
+	 * Queues text to be appended to a file. The file is created if it does not exist.
+	 *
+	 * @param file The file to append to.
+	 * @param text The text to append.
+	 */
+	public void append(Path file, String text) {
+		enqueue(new Entry(file, text, null));
+	}
+
+	/**
+	 * Blocks until all text queued so far is written and flushed and the log files are closed, or the
+	 * writer thread has stopped.
+	 */
+	public void flush() {
+		if (closed)
+			return;
+		CountDownLatch done = new CountDownLatch(1);
+		enqueue(new Entry(null, null, done));
+		try {
+			while (!done.await(FLUSH_POLL, TimeUnit.MILLISECONDS)) {
+				if (!thread.isAlive())
+					return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes all queued text, closes the log files and stops the writer thread.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		queue.add(CLOSE);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void enqueue(Entry entry) {
+		if (closed) {
+			System.err.println("Log writer is closed, dropping output"
+					+ (entry.file == null ? "" : " for " + entry.file));
+			return;
+		}
+		queue.add(entry);
+	}
+
+	private void drain() {
+		try {
+			while (true) {
+				Entry entry = queue.take();
+				if (entry == CLOSE)
+					break;
+				try {
+					if (entry.done != null) {
+						console.flush();
+						closeFiles();
+						continue;
+					}
+					Writer writer = entry.file == null ? console : writer(entry.file);
+					writer.write(entry.text);
+					if (entry.text.endsWith("\n"))
+						writer.flush();
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					if (entry.done != null)
+						entry.done.countDown();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				console.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			closeFiles();
+			for (Entry entry : queue) {
+				if (entry.done != null)
+					entry.done.countDown();
+			}
+		}
+	}
+
+	private void closeFiles() {
+		for (Map.Entry<Path, Writer> file : writers.entrySet()) {
+			try {
+				file.getValue().close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		writers.clear();
+	}
+
+	private Writer writer(Path file) throws IOException {
+		Writer writer = writers.get(file);
+		if (writer == null) {
+			writer = Files.newBufferedWriter(file, Charset.defaultCharset(),
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			writers.put(file, writer);
+		}
+		return writer;
+	}
+
+	private static class Entry {
+
+		final Path file;
+
+		final String text;
+
+		final CountDownLatch done;
+
+		Entry(Path file, String text, CountDownLatch done) {
+			this.file = file;
+			this.text = text;
+			this.done = done;
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+package Henshin;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * A small benchmark harness in the spirit of JMH for running benchmarks without a build system.
+ * A benchmark is run for a number of warm-up iterations whose results are discarded, followed by
+ * a number of measured iterations. Every iteration invokes the benchmark repeatedly until the
+ * iteration time has passed. The state of each invocation is created by a setup step that is not
+ * measured, so that e.g. the computation of a granularity can be timed without the construction
+ * of the analysis.
+ *
+ * For every benchmark the throughput, the average time per operation and, like the JMH GC profiler,
+ * the allocated bytes per operation, the allocation rate and the garbage collections during the
+ * measured iterations are reported.
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * A benchmarked operation.
+	 *
+	 * @param <S> The type of the per-invocation state.
+	 */
+	public interface Benchmark<S> {
+
+		/**
+		 * Creates the state of one invocation. Not measured.
+		 */
+		S setup() throws Exception;
+
+		/**
+		 * Runs the measured operation.
+		 *
+		 * @param state The state created by {@link #setup()}.
+		 * @return A value depending on the work done, so that it cannot be optimised away.
+		 */
+		Object run(S state) throws Exception;
+	}
+
+	/**
+	 * The measurements of one benchmark.
+	 */
+	public static class Result {
+
+		private final String name;
+
+		private final long operations;
+
+		private final long nanos;
+
+		private final long allocatedBytes;
+
+		private final long gcCount;
+
+		private final long gcMillis;
+
+		private final double averageDeviation;
+
+		Result(String name, long operations, long nanos, long allocatedBytes, long gcCount, long gcMillis,
+				double averageDeviation) {
+			this.name = name;
+			this.operations = operations;
+			this.nanos = nanos;
+			this.allocatedBytes = allocatedBytes;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+			this.averageDeviation = averageDeviation;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The number of operations per second.
+		 */
+		public double getThroughput() {
+			return operations / (nanos / 1e9);
+		}
+
+		/**
+		 * @return The average time per operation in microseconds.
+		 */
+		public double getAverageMicros() {
+			return nanos / 1e3 / operations;
+		}
+
+		/**
+		 * @return The standard deviation of the average time per operation over the measured
+		 *         iterations, in microseconds.
+		 */
+		public double getAverageDeviationMicros() {
+			return averageDeviation;
+		}
+
+		/**
+		 * @return The allocated bytes per operation, or a negative value if allocation cannot be measured.
+		 */
+		public double getBytesPerOperation() {
+			return allocatedBytes < 0 ? -1 : (double) allocatedBytes / operations;
+		}
+
+		/**
+		 * @return The allocation rate in MB per second of measured time, or a negative value if
+		 *         allocation cannot be measured.
+		 */
+		public double getAllocationRate() {
+			return allocatedBytes < 0 ? -1 : allocatedBytes / 1048576.0 / (nanos / 1e9);
+		}
+
+		public long getGcCount() {
+			return gcCount;
+		}
+
+		public long getGcMillis() {
+			return gcMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%-60s %12.3f %12.3f +- %-10.3f %14.1f %10.3f %6d %8d",
+					name, getThroughput(), getAverageMicros(), averageDeviation, getBytesPerOperation(),
+					getAllocationRate(), gcCount, gcMillis);
+		}
+
+		/**
+		 * @return The header matching {@link #toString()}.
+		 */
+		public static String header() {
+			return String.format(Locale.ROOT, "%-60s %12s %12s    %-10s %14s %10s %6s %8s",
+					"Benchmark", "ops/s", "us/op", "(sd)", "B/op", "MB/s", "gc", "gc ms");
+		}
+	}
+
+	private final int warmupIterations;
+
+	private final int measurementIterations;
+
+	private final long iterationNanos;
+
+	private final com.sun.management.ThreadMXBean threads;
+
+	// Receives the benchmark results so that the JIT cannot eliminate the benchmarked work.
+	private volatile int sink;
+
+	/**
+	 * Creates a runner.
+	 *
+	 * @param warmupIterations The number of discarded warm-up iterations, at least 0.
+	 * @param measurementIterations The number of measured iterations, at least 1.
+	 * @param iterationMillis The duration of one iteration in milliseconds, at least 1.
+	 */
+	public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis) {
+		if (warmupIterations < 0 || measurementIterations < 1 || iterationMillis < 1)
+			throw new IllegalArgumentException("Invalid benchmark configuration: " + warmupIterations + " warm-up, "
+					+ measurementIterations + " measured iterations of " + iterationMillis + " ms");
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationNanos = iterationMillis * 1000000;
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			threads = (com.sun.management.ThreadMXBean) bean;
+			threads.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			threads = null;
+		}
+	}
+
+	/**
+	 * Runs a benchmark.
+	 *
+	 * @param name The name of the benchmark.
+	 * @param benchmark The benchmark.
+	 * @return The measurements of the measured iterations.
+	 * @throws Exception If the benchmark fails.
+	 */
+	public <S> Result run(String name, Benchmark<S> benchmark) throws Exception {
+		for (int i = 0; i < warmupIterations; i++)
+			iterate(benchmark);
+		long operations = 0;
+		long nanos = 0;
+		long allocated = threads == null ? -1 : 0;
+		long gcCount = -gcCount();
+		long gcMillis = -gcMillis();
+		double[] averages = new double[measurementIterations];
+		for (int i = 0; i < measurementIterations; i++) {
+			long[] iteration = iterate(benchmark);
+			operations += iteration[0];
+			nanos += iteration[1];
+			if (threads != null)
+				allocated += iteration[2];
+			averages[i] = iteration[1] / 1e3 / iteration[0];
+		}
+		gcCount += gcCount();
+		gcMillis += gcMillis();
+		return new Result(name, operations, nanos, allocated, gcCount, gcMillis, deviation(averages));
+	}
+
+	// Returns the number of operations, their total time and their allocated bytes.
+	private <S> long[] iterate(Benchmark<S> benchmark) throws Exception {
+		long thread = Thread.currentThread().getId();
+		long operations = 0;
+		long nanos = 0;
+		long allocated = 0;
+		long end = System.nanoTime() + iterationNanos;
+		do {
+			S state = benchmark.setup();
+			long bytes = threads == null ? 0 : threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			Object result = benchmark.run(state);
+			nanos += System.nanoTime() - start;
+			if (threads != null)
+				allocated += threads.getThreadAllocatedBytes(thread) - bytes;
+			sink ^= System.identityHashCode(result);
+			operations++;
+		} while (System.nanoTime() < end);
+		return new long[] { operations, nanos, allocated };
+	}
+
+	private static double deviation(double[] values) {
+		double mean = 0;
+		for (double value : values)
+			mean += value / values.length;
+		double variance = 0;
+		for (double value : values)
+			variance += (value - mean) * (value - mean) / values.length;
+		return Math.sqrt(variance);
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			millis += Math.max(0, gc.getCollectionTime());
+		return millis;
+	}
+
+}
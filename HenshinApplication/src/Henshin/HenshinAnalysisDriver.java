@@ -0,0 +1,260 @@
+package Henshin;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.emf.ecore.EcorePackage;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl;
+import org.eclipse.emf.henshin.model.Rule;
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * Runs the conflict and the dependency analysis in one process. The EMF resource factories are
+ * registered once, and the rules are loaded and prepared once and shared by both analyses, instead
+ * of loading and preparing every rule in two separate runs of {@link HenshinConflictDetection} and
+ * {@link HenshinDependencyDetection}. Both analyses can optionally run at the same time. The results
+ * are logged by the two detection classes as in separate runs.
+ */
+public class HenshinAnalysisDriver {
+
+	private static boolean factoriesRegistered = false;
+
+	private final HenshinConflictDetection conflictDetection = new HenshinConflictDetection();
+
+	private final HenshinDependencyDetection dependencyDetection = new HenshinDependencyDetection();
+
+	private boolean concurrent = false;
+
+	private int warmups = 0;
+
+	private int repetitions = 1;
+
+	private long pairTimeout = 0;
+
+	private long runTimeout = 0;
+
+	private PairRecordWriter records;
+
+	private PairShard shard;
+
+	private Path shardDirectory = Paths.get("shards");
+
+	/**
+	 * Creates a driver using all available processors for each analysis.
+	 */
+	public HenshinAnalysisDriver() {
+		int threads = Runtime.getRuntime().availableProcessors();
+		conflictDetection.setThreads(threads);
+		dependencyDetection.setThreads(threads);
+	}
+
+	/**
+	 * Registers the EMF resource factories needed for loading Henshin modules and metamodels. Only
+	 * the first call has an effect.
+	 */
+	public static synchronized void registerFactories() {
+		if (factoriesRegistered)
+			return;
+		EcorePackage.eINSTANCE.eClass();
+		Resource.Factory.Registry reg = Resource.Factory.Registry.INSTANCE;
+		Map<String, Object> m = reg.getExtensionToFactoryMap();
+		m.put("xmi", new XMIResourceFactoryImpl());
+		factoriesRegistered = true;
+	}
+
+	public HenshinConflictDetection getConflictDetection() {
+		return conflictDetection;
+	}
+
+	public HenshinDependencyDetection getDependencyDetection() {
+		return dependencyDetection;
+	}
+
+	/**
+	 * Enables or disables running the conflict and the dependency analysis at the same time. Each
+	 * analysis keeps its own thread pool, so the machine may be oversubscribed by up to a factor of 2.
+	 *
+	 * @param concurrent True to run both analyses concurrently.
+	 */
+	public void setConcurrent(boolean concurrent) {
+		this.concurrent = concurrent;
+	}
+
+	/**
+	 * Loads and prepares the rules of a folder once and analyses them for conflicts and dependencies.
+	 *
+	 * @param granularities The granularities to compute.
+	 * @param henshinFolderPath The directory path where the Henshin modules are located.
+	 */
+	public void run(List<Granularity> granularities, String henshinFolderPath) {
+		long start = System.nanoTime();
+		conflictDetection.init();
+		dependencyDetection.init();
+		List<Rule> rules = conflictDetection.getPreparedRules(henshinFolderPath);
+		long prepared = System.nanoTime();
+		System.out.println("Loaded and prepared " + rules.size() + " rules in " + (prepared - start) / 1000000 + " ms.");
+
+		ResultMatrix conflicts;
+		ResultMatrix dependencies;
+		if (concurrent) {
+			CompletableFuture<ResultMatrix> conflictResults = CompletableFuture
+					.supplyAsync(() -> conflictDetection.getEngine().analyse(granularities, rules));
+			dependencies = dependencyDetection.getEngine().analyse(granularities, rules);
+			conflicts = conflictResults.join();
+		} else {
+			conflicts = conflictDetection.getEngine().analyse(granularities, rules);
+			dependencies = dependencyDetection.getEngine().analyse(granularities, rules);
+		}
+		System.out.println("Analysed conflicts and dependencies in " + (System.nanoTime() - prepared) / 1000000 + " ms.");
+
+		conflictDetection.logResults(conflicts);
+		dependencyDetection.logResults(dependencies);
+		conflictDetection.flushLogs();
+		dependencyDetection.flushLogs();
+	}
+
+	/**
+	 * Applies an analysis option of the command line to both detections: {@code --threads <n>},
+	 * {@code --cascade}, {@code --prune}, {@code --cache <dir>}, {@code --prepared-cache <dir>}, {@code --warmup <n>},
+	 * {@code --repeat <n>}, {@code --phases}, {@code --export <formats>}, {@code --ndjson <file>}, {@code --shard i/n}, {@code --shard-dir <dir>},
+	 * {@code --checkpoint <dir>}, {@code --dedup}, {@code --schedule}, {@code --pair-timeout <ms>}, {@code --run-timeout <ms>},
+	 * {@code --max-heap <mb|%>} and {@code --concurrent}. The measurement options take effect with
+	 * {@link #applyMeasurement()}.
+	 *
+	 * @return The index of the last consumed argument, or -1 if the argument is no analysis option.
+	 */
+	int parseOption(String[] args, int index) {
+		switch (args[index]) {
+		case "--threads":
+			int threads = Integer.parseInt(args[++index]);
+			conflictDetection.setThreads(threads);
+			dependencyDetection.setThreads(threads);
+			break;
+		case "--cascade":
+			conflictDetection.setCascade(true);
+			dependencyDetection.setCascade(true);
+			break;
+		case "--prune":
+			conflictDetection.setFootprintPruning(true);
+			dependencyDetection.setFootprintPruning(true);
+			break;
+		case "--cache":
+			PairResultCache cache = new PairResultCache(Paths.get(args[++index]));
+			conflictDetection.setCache(cache);
+			dependencyDetection.setCache(cache);
+			break;
+		case "--prepared-cache":
+			PreparedRuleCache preparedRuleCache = new PreparedRuleCache(Paths.get(args[++index]));
+			conflictDetection.setPreparedRuleCache(preparedRuleCache);
+			dependencyDetection.setPreparedRuleCache(preparedRuleCache);
+			break;
+		case "--warmup":
+			warmups = Integer.parseInt(args[++index]);
+			break;
+		case "--repeat":
+			repetitions = Integer.parseInt(args[++index]);
+			break;
+		case "--phases":
+			conflictDetection.setPhaseTimes(true);
+			dependencyDetection.setPhaseTimes(true);
+			break;
+		case "--export":
+			List<ResultMatrixIO.Format> formats = ResultMatrixIO.parseFormats(args[++index]);
+			conflictDetection.setExportFormats(formats);
+			dependencyDetection.setExportFormats(formats);
+			break;
+		case "--ndjson":
+			records = PairRecordWriter.open(args[++index]);
+			conflictDetection.setPairRecords(records);
+			dependencyDetection.setPairRecords(records);
+			break;
+		case "--shard":
+			shard = PairShard.parse(args[++index]);
+			conflictDetection.setShard(shard, shardDirectory);
+			dependencyDetection.setShard(shard, shardDirectory);
+			break;
+		case "--shard-dir":
+			shardDirectory = Paths.get(args[++index]);
+			conflictDetection.setShard(shard, shardDirectory);
+			dependencyDetection.setShard(shard, shardDirectory);
+			break;
+		case "--checkpoint":
+			Path journalDirectory = Paths.get(args[++index]);
+			conflictDetection.setJournalDirectory(journalDirectory);
+			dependencyDetection.setJournalDirectory(journalDirectory);
+			break;
+		case "--dedup":
+			conflictDetection.setDeduplication(true);
+			dependencyDetection.setDeduplication(true);
+			break;
+		case "--schedule":
+			conflictDetection.setCostScheduling(true);
+			dependencyDetection.setCostScheduling(true);
+			break;
+		case "--pair-timeout":
+			pairTimeout = Long.parseLong(args[++index]);
+			conflictDetection.setTimeouts(pairTimeout, runTimeout);
+			dependencyDetection.setTimeouts(pairTimeout, runTimeout);
+			break;
+		case "--run-timeout":
+			runTimeout = Long.parseLong(args[++index]);
+			conflictDetection.setTimeouts(pairTimeout, runTimeout);
+			dependencyDetection.setTimeouts(pairTimeout, runTimeout);
+			break;
+		case "--max-heap":
+			long heapCeiling = MultiGranularEngine.parseHeapCeiling(args[++index]);
+			conflictDetection.setHeapCeiling(heapCeiling);
+			dependencyDetection.setHeapCeiling(heapCeiling);
+			break;
+		case "--concurrent":
+			setConcurrent(true);
+			break;
+		default:
+			return -1;
+		}
+		return index;
+	}
+
+	/**
+	 * Passes the warm-up and repetition counts given on the command line to both detections.
+	 */
+	void applyMeasurement() {
+		conflictDetection.setMeasurement(warmups, repetitions);
+		dependencyDetection.setMeasurement(warmups, repetitions);
+	}
+
+	/**
+	 * Closes the pair records opened by {@code --ndjson}, if any.
+	 */
+	void closeRecords() {
+		if (records != null)
+			records.close();
+	}
+
+	/**
+	 * Analyses the "bank" folder next to the working directory, or the folder given as argument, for
+	 * conflicts and dependencies. The options are described at {@link #parseOption}.
+	 *
+	 * @param args the command-line arguments.
+	 */
+	public static void main(String[] args) {
+		String henshinFolderPath = new File(System.getProperty("user.dir")).getParent() + File.separator + "bank";
+		HenshinAnalysisDriver driver = new HenshinAnalysisDriver();
+		for (int i = 0; i < args.length; i++) {
+			int last = driver.parseOption(args, i);
+			if (last < 0)
+				henshinFolderPath = args[i];
+			else
+				i = last;
+		}
+		driver.applyMeasurement();
+		driver.run(HenshinConflictDetection.granularities, henshinFolderPath);
+		driver.closeRecords();
+	}
+
+}
@@ -0,0 +1,144 @@
+package Henshin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.eclipse.emf.ecore.EcorePackage;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl;
+import org.eclipse.emf.henshin.model.Rule;
+import org.eclipse.emf.henshin.multicda.cda.MultiGranularAnalysis;
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+import org.eclipse.emf.henshin.preprocessing.HenshinRuleLoader;
+import org.eclipse.emf.henshin.preprocessing.RulePreparator;
+
+/**
+ * Benchmarks the building blocks of the conflict and dependency detection on a rule folder with the
+ * {@link BenchmarkRunner}:
+ * <ul>
+ * <li>{@code load} loads all rules of the folder with {@link HenshinRuleLoader},</li>
+ * <li>{@code prepare/<rule>} prepares a single rule with {@link RulePreparator#prepareRule(Rule)},</li>
+ * <li>{@code <kind>/<granularity>/<rule1>,<rule2>} computes one granularity of one rule pair on a
+ * freshly constructed analysis; the construction itself is not measured.</li>
+ * </ul>
+ * The results are printed as a table, one line per benchmark.
+ */
+public class HenshinBenchmarks {
+
+	private final BenchmarkRunner runner;
+
+	private final Pattern filter;
+
+	/**
+	 * Creates the benchmark suite.
+	 *
+	 * @param runner The runner executing the benchmarks.
+	 * @param filter Only benchmarks whose name contains a match of this pattern are run.
+	 */
+	public HenshinBenchmarks(BenchmarkRunner runner, Pattern filter) {
+		this.runner = runner;
+		this.filter = filter;
+	}
+
+	/**
+	 * Runs all selected benchmarks on the rules of the given folder.
+	 *
+	 * @param folder The folder containing the Henshin modules.
+	 * @return The results in the order the benchmarks were run.
+	 * @throws Exception If a benchmark fails.
+	 */
+	public List<BenchmarkRunner.Result> run(File folder) throws Exception {
+		EcorePackage.eINSTANCE.eClass();
+		Resource.Factory.Registry.INSTANCE.getExtensionToFactoryMap().put("xmi", new XMIResourceFactoryImpl());
+
+		List<BenchmarkRunner.Result> results = new ArrayList<BenchmarkRunner.Result>();
+		System.out.println(BenchmarkRunner.Result.header());
+
+		run("load", results, new BenchmarkRunner.Benchmark<File>() {
+			public File setup() {
+				return folder;
+			}
+
+			public Object run(File state) {
+				return HenshinRuleLoader.loadAllRulesFromFileSystemPaths(state);
+			}
+		});
+
+		List<Rule> rules = new ArrayList<Rule>(HenshinRuleLoader.loadAllRulesFromFileSystemPaths(folder));
+		rules.removeIf(rule -> !rule.getMultiRules().isEmpty());
+		for (Rule rule : rules) {
+			run("prepare/" + rule.getName(), results, new BenchmarkRunner.Benchmark<Rule>() {
+				public Rule setup() {
+					return rule;
+				}
+
+				public Object run(Rule state) {
+					return RulePreparator.prepareRule(state);
+				}
+			});
+		}
+
+		HenshinConflictDetection.prepareRules(rules);
+		for (AnalysisKind kind : AnalysisKind.values()) {
+			for (Granularity granularity : MultiGranularEngine.SUPPORTED_GRANULARITIES) {
+				for (Rule first : rules) {
+					for (Rule second : rules) {
+						String name = kind.getLabel() + "/" + granularity + "/" + first.getName() + "," + second.getName();
+						run(name, results, new BenchmarkRunner.Benchmark<MultiGranularAnalysis>() {
+							public MultiGranularAnalysis setup() {
+								return kind.createAnalysis(first, second);
+							}
+
+							public Object run(MultiGranularAnalysis state) {
+								return MultiGranularEngine.compute(state, granularity);
+							}
+						});
+					}
+				}
+			}
+		}
+		return results;
+	}
+
+	private <S> void run(String name, List<BenchmarkRunner.Result> results, BenchmarkRunner.Benchmark<S> benchmark)
+			throws Exception {
+		if (!filter.matcher(name).find())
+			return;
+		BenchmarkRunner.Result result = runner.run(name, benchmark);
+		System.out.println(result);
+		results.add(result);
+	}
+
+	/**
+	 * Benchmarks the "bank" folder next to the working directory, or the folder given as argument.
+	 * {@code --warmup <n>} and {@code --iterations <n>} set the number of warm-up and measured
+	 * iterations (default 3 and 5), {@code --time <ms>} the duration of an iteration (default 200)
+	 * and {@code --filter <regex>} selects the benchmarks to run.
+	 *
+	 * @param args the command-line arguments.
+	 */
+	public static void main(String[] args) throws Exception {
+		String henshinFolderPath = new File(System.getProperty("user.dir")).getParent() + File.separator + "bank";
+		int warmups = 3;
+		int iterations = 5;
+		long millis = 200;
+		Pattern filter = Pattern.compile("");
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--warmup"))
+				warmups = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--iterations"))
+				iterations = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--time"))
+				millis = Long.parseLong(args[++i]);
+			else if (args[i].equals("--filter"))
+				filter = Pattern.compile(args[++i]);
+			else
+				henshinFolderPath = args[i];
+		}
+		new HenshinBenchmarks(new BenchmarkRunner(warmups, iterations, millis), filter)
+				.run(new File(henshinFolderPath));
+	}
+
+}
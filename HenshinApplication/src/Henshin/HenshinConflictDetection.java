@@ -6,27 +6,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.stream.Collectors;
 
-import org.eclipse.emf.ecore.EcorePackage;
-import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
 import org.eclipse.emf.ecore.xmi.impl.EcoreResourceFactoryImpl;
-import org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl;
 import org.eclipse.emf.henshin.model.Rule;
-import org.eclipse.emf.henshin.multicda.cda.ConflictAnalysis;
-import org.eclipse.emf.henshin.multicda.cda.MultiGranularAnalysis;
-import org.eclipse.emf.henshin.multicda.cda.units.Reason;
-import org.eclipse.emf.henshin.multicda.cda.units.Span;
 import org.eclipse.emf.henshin.preprocessing.Granularity;
 import org.eclipse.emf.henshin.preprocessing.HenshinRuleLoader;
 import org.eclipse.emf.henshin.preprocessing.RulePreparator;
@@ -58,6 +48,16 @@ public class HenshinConflictDetection {
 	private ResourceSetImpl resourceSet;
 
 	private boolean WRITE_LOGS = true;
+
+	private boolean writeTimeLogs = true;
+	
+	private PreparedRuleCache preparedRuleCache;
+
+	private List<ResultMatrixIO.Format> exportFormats = Collections.emptyList();
+
+	private Path shardDirectory = Paths.get("shards");
+
+	private final MultiGranularEngine engine = new MultiGranularEngine(AnalysisKind.CONFLICT);
 	
     
 	/**
@@ -71,10 +71,10 @@ public class HenshinConflictDetection {
 		
 	public void run(List<Granularity> granularities, String henshinFolderPath) {
 		init();
-		List<Rule> rules = getRules(henshinFolderPath);
-		prepareRules(rules);
+		List<Rule> rules = getPreparedRules(henshinFolderPath);
 		//List<RulePair> nonDeleting = NonDeletingPreparator.prepareNonDeletingVersions(rules);
 		doMultiGranularConflictAnalysis(granularities, rules);
+		flushLogs();
 	}
 	
     /**
@@ -85,14 +85,11 @@ public class HenshinConflictDetection {
 
 	public void init() {
 	
-		EcorePackage.eINSTANCE.eClass();
-		Resource.Factory.Registry reg = Resource.Factory.Registry.INSTANCE;
-		Map<String, Object> m = reg.getExtensionToFactoryMap();
-		m.put("xmi", new XMIResourceFactoryImpl());
+		HenshinAnalysisDriver.registerFactories();
 		resourceSet = new ResourceSetImpl();
 		resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("ecore",
 				new EcoreResourceFactoryImpl());
-		if (WRITE_LOGS )
+		if (WRITE_LOGS && engine.getShard() == null)
 			initLogs();
 	}
 	
@@ -129,7 +126,7 @@ public class HenshinConflictDetection {
 	
     /**
      * Performs the multi-granular conflict analysis using the specified granularities on the given rules and non-deleting rule pairs.
-     * Logs the analysis results.
+     * Each rule pair is analysed once for all granularities; the results are logged afterwards, one matrix per granularity.
      * 
      * @param granularities The granularities at which to perform the analysis.
      * @param rules The list of Henshin rules.
@@ -137,56 +134,297 @@ public class HenshinConflictDetection {
      */
 
 	protected void doMultiGranularConflictAnalysis(List<Granularity> granularities,  List<Rule> rules) {
+		logResults(engine.analyse(granularities, rules));
+	}
+	
+    /**
+     * Loads and prepares the rules of the specified directory, taking them from the prepared rule
+     * cache if one is set and the sources are unchanged.
+     * 
+     * @param henshinFolderPath The directory path where the Henshin modules are located.
+     * @return The prepared rules.
+     */
+
+	public List<Rule> getPreparedRules(String henshinFolderPath) {
+		if (preparedRuleCache != null)
+			return preparedRuleCache.getRules(henshinFolderPath);
+		List<Rule> rules = getRules(henshinFolderPath);
+		prepareRules(rules);
+		return rules;
+	}
+	
+    /**
+     * Logs the computed results, one matrix per granularity, and closes them in the results log with
+     * {@link ResultMatrixIO#LOG_COMPLETE}. The partial results of a shard are only
+     * written to the shard file; the logs are written by the {@link ShardMerger}.
+     * 
+     * @param results The results of the conflict analysis.
+     */
 
-		if (granularities.contains(Granularity.binary)) {
+	public void logResults(ResultMatrix results) {
+		if (engine.getShard() != null) {
+			exportResults(results);
+			return;
+		}
+		if (results.contains(Granularity.binary)) {
 			logn("Computing binary granularity:");
-			for (Rule r1 : rules) {
-				for (Rule r2 : rules) {
-					long time = System.currentTimeMillis();
-					MultiGranularAnalysis ca = 
-							 new ConflictAnalysis(r1, r2);
-					Span result = ca.computeResultsBinary();
-					log(result == null ? "0 " : "1 ");
-					tlog(System.currentTimeMillis() - time + " ");
-				}
-				logbn("   | " + r1.getName());
-			}
-			logbn("");
+			logMatrix(results, Granularity.binary);
 		}
 
-		if (granularities.contains(Granularity.coarse)) {
+		if (results.contains(Granularity.coarse)) {
 			logn("Computing minimal conflict reasons:");
-			for (Rule r1 : rules) {
-				for (Rule r2 : rules) {
-					long time = System.currentTimeMillis();
-					MultiGranularAnalysis ca = 
-							 new ConflictAnalysis(r1, r2);
-					Set<? extends Reason> result = ca.computeResultsCoarse();
-					log(result.size() + " ");
-					tlog(System.currentTimeMillis() - time + " ");
-				}
-				logbn("   | " + r1.getName());
-			}
-			logbn("");
+			logMatrix(results, Granularity.coarse);
 		}
 
-		if (granularities.contains(Granularity.fine)) {
+		if (results.contains(Granularity.fine)) {
 			logn("Computing initial conflict reasons:");
-			for (Rule r1 : rules) {
-				List<Integer> resultRow = new ArrayList<Integer>();
-				for (Rule r2 : rules) {
-					long time = System.currentTimeMillis();
-					MultiGranularAnalysis ca = 
-							 new ConflictAnalysis(r1, r2);
-					Set<? extends Reason> result = ca.computeResultsFine();
-					log(result.size() + " ");
-					tlog(System.currentTimeMillis() - time + " ");
-					resultRow.add(result.size());
-				}
-				logbn("   | " + r1.getName());
+			logMatrix(results, Granularity.fine);
+		}
+		if (WRITE_LOGS)
+			AsyncLogWriter.shared().append(Paths.get("logs", "results", path), ResultMatrixIO.LOG_COMPLETE + "\n");
+		exportResults(results);
+	}
+	
+    /**
+     * Writes the results in the export formats, if any, next to the logs under "logs/export", or
+     * only the shard file if only a shard of the pairs was analysed.
+     * 
+     * @param results The results of the conflict analysis.
+     */
+
+	public void exportResults(ResultMatrix results) {
+		try {
+			PairShard shard = engine.getShard();
+			if (shard != null) {
+				Files.createDirectories(shardDirectory);
+				ResultMatrixIO.write(results, ResultMatrixIO.Format.BINARY, shard.file(shardDirectory, engine.getKind()));
+				System.out.println("Wrote " + shard.file(shardDirectory, engine.getKind()));
+				return;
+			}
+			if (WRITE_LOGS && !exportFormats.isEmpty())
+				ResultMatrixIO.export(results, exportFormats, Paths.get("logs", "export", getDomainName(), logTimeStamp));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+    /**
+     * Writes one granularity of the result matrix row by row to the results log and the
+     * corresponding analysis times to the time log, followed by the time of each analysis phase if
+     * phase times were recorded.
+     * 
+     * @param results The computed results.
+     * @param granularity The granularity to write.
+     */
+
+	private void logMatrix(ResultMatrix results, Granularity granularity) {
+		for (int i = 0; i < results.size(); i++) {
+			for (int j = 0; j < results.size(); j++) {
+				log(results.formatValue(granularity, i, j) + " ");
+				tlog(results.formatTime(granularity, i, j) + " ");
 			}
-			logbn("");
+			logbn("   | " + results.getRuleNames().get(i));
 		}
+		logbn("");
+		if (!results.hasPhaseTimes(granularity))
+			return;
+		for (ResultMatrix.Phase phase : ResultMatrix.Phase.values()) {
+			tlog(phase.getLabel() + " (ms):\n");
+			for (int i = 0; i < results.size(); i++) {
+				for (int j = 0; j < results.size(); j++)
+					tlog(results.formatPhaseTime(granularity, phase, i, j) + " ");
+				tlog("   | " + results.getRuleNames().get(i) + "\n");
+			}
+			tlog("\n");
+		}
+	}
+	
+    /**
+     * Blocks until all queued log output is written.
+     */
+
+	public void flushLogs() {
+		AsyncLogWriter.shared().flush();
+	}
+	
+    /**
+     * @return The engine computing the pairwise results of this detection.
+     */
+
+	public MultiGranularEngine getEngine() {
+		return engine;
+	}
+	
+    /**
+     * Sets the number of worker threads used to analyse the rule pairs. A value of 1 reproduces
+     * the sequential behaviour.
+     * 
+     * @param threads The number of threads, at least 1.
+     */
+
+	public void setThreads(int threads) {
+		engine.setThreads(threads);
+	}
+	
+    /**
+     * Enables the granularity cascade, which skips the coarse and fine analysis of pairs without a
+     * binary conflict and the fine analysis of pairs without minimal conflict reasons.
+     * 
+     * @param cascade True to enable the cascade.
+     */
+
+	public void setCascade(boolean cascade) {
+		engine.setCascade(cascade);
+	}
+	
+    /**
+     * Enables pruning of rule pairs whose type footprints cannot interact; see {@link RuleFootprintIndex}.
+     * 
+     * @param footprintPruning True to enable footprint pruning.
+     */
+
+	public void setFootprintPruning(boolean footprintPruning) {
+		engine.setFootprintPruning(footprintPruning);
+	}
+	
+    /**
+     * Sets the persistent cache of pairwise results; see {@link PairResultCache}.
+     * 
+     * @param cache The cache, or null to disable caching.
+     */
+
+	public void setCache(PairResultCache cache) {
+		engine.setCache(cache);
+	}
+	
+    /**
+     * Sets the on-disk cache of prepared rules; see {@link PreparedRuleCache}.
+     * 
+     * @param preparedRuleCache The cache, or null to always load and prepare the rules.
+     */
+
+	public void setPreparedRuleCache(PreparedRuleCache preparedRuleCache) {
+		this.preparedRuleCache = preparedRuleCache;
+	}
+	
+    /**
+     * Sets the number of discarded warm-up runs and measured repetitions per rule pair. With more than
+     * one repetition the time log shows median, 95th percentile and maximum of each cell.
+     * 
+     * @param warmups The number of warm-up runs, at least 0.
+     * @param repetitions The number of measured runs, at least 1.
+     */
+
+	public void setMeasurement(int warmups, int repetitions) {
+		engine.setMeasurement(warmups, repetitions);
+	}
+	
+    /**
+     * Sets the formats in which the results are exported in addition to the logs; see {@link ResultMatrixIO}.
+     * 
+     * @param exportFormats The formats, empty to export nothing.
+     */
+
+	public void setExportFormats(List<ResultMatrixIO.Format> exportFormats) {
+		this.exportFormats = exportFormats;
+	}
+	
+    /**
+     * Streams the result of every finished pair to the given writer; see {@link PairRecordWriter}.
+     * 
+     * @param records The writer, or null to stop streaming.
+     */
+
+	public void setPairRecords(PairRecordWriter records) {
+		engine.setPairListener(records);
+	}
+	
+    /**
+     * Restricts the analysis to one shard of the rule pairs; see {@link PairShard}. The results of the
+     * shard are written to the shard directory, from where {@link ShardMerger} combines all shards.
+     * 
+     * @param shard The shard, or null to analyse all pairs.
+     * @param shardDirectory The directory receiving the shard file.
+     */
+
+	public void setShard(PairShard shard, Path shardDirectory) {
+		engine.setShard(shard);
+		this.shardDirectory = shardDirectory;
+	}
+	
+    /**
+     * Checkpoints the finished pairs to a {@link PairJournal} in the given directory, so that a killed
+     * run resumes with the missing pairs only.
+     * 
+     * @param journalDirectory The journal directory, or null to disable checkpointing.
+     */
+
+	public void setJournalDirectory(Path journalDirectory) {
+		engine.setJournalDirectory(journalDirectory);
+	}
+	
+    /**
+     * Enables the analysis of only one pair per pair of classes of isomorphic rules; see
+     * {@link MultiGranularEngine#setDeduplication(boolean)}.
+     * 
+     * @param deduplication True to enable deduplication.
+     */
+
+	public void setDeduplication(boolean deduplication) {
+		engine.setDeduplication(deduplication);
+	}
+	
+    /**
+     * Enables scheduling the most expensive pairs first, predicted from the time logs of earlier
+     * runs of this detection; see {@link PairCostModel}.
+     * 
+     * @param scheduling True to schedule by predicted cost.
+     */
+
+	public void setCostScheduling(boolean scheduling) {
+		engine.setCostModel(scheduling ? PairCostModel.fromTimeLogs(Paths.get("logs", "time", getDomainName())) : null);
+	}
+	
+    /**
+     * Sets the time budgets of the analysis; pairs over budget are logged as "T" and the run carries on.
+     * 
+     * @param pairTimeout The budget per pair in milliseconds, 0 for none.
+     * @param runTimeout The budget for all pairs in milliseconds, 0 for none.
+     */
+
+	public void setTimeouts(long pairTimeout, long runTimeout) {
+		engine.setTimeouts(pairTimeout, runTimeout);
+	}
+	
+    /**
+     * Enables or disables the time of each analysis phase in the time log.
+     * 
+     * @param phaseTimes True to log the phase times.
+     */
+
+	public void setPhaseTimes(boolean phaseTimes) {
+		engine.setPhaseTimes(phaseTimes);
+	}
+	
+    /**
+     * Enables or disables the time log. Results that were not timed by this process, e.g. merged
+     * shards, are logged without one, so that their zero times are not mistaken for a run.
+     * 
+     * @param writeTimeLogs False to write the results log only.
+     */
+
+	public void setTimeLogs(boolean writeTimeLogs) {
+		this.writeTimeLogs = writeTimeLogs;
+	}
+	
+    /**
+     * Bounds the heap used by the analysis; see {@link MultiGranularEngine#setHeapCeiling(long)}.
+     * 
+     * @param heapCeiling The ceiling in bytes, 0 for none.
+     */
+
+	public void setHeapCeiling(long heapCeiling) {
+		engine.setHeapCeiling(heapCeiling);
 	}
 	
     /**
@@ -203,7 +441,7 @@ public class HenshinConflictDetection {
 	        Path timeLogFilePath = Paths.get(timeLogPath);
 	        Path resultsLogFilePath = Paths.get(resultsLogPath);
 
-	        if (!Files.exists(timeLogFilePath)) {
+	        if (writeTimeLogs && !Files.exists(timeLogFilePath)) {
 	            Files.createDirectories(timeLogFilePath.getParent());
 	            Files.createFile(timeLogFilePath);
 	        }
@@ -235,32 +473,21 @@ public class HenshinConflictDetection {
      */
 
 	protected void tlog(String string) {
-		if (WRITE_LOGS) {
-			try {
-				Files.write(Paths.get("logs"+File.separator+"time"+File.separator+path), string.getBytes(), StandardOpenOption.APPEND);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+		if (WRITE_LOGS && writeTimeLogs)
+			AsyncLogWriter.shared().append(Paths.get("logs", "time", path), string);
 	}
 	
     /**
-     * Logs a message to both the console and the results log file.
+     * Logs a message to both the console and the results log file. The message is only queued here;
+     * it is written by the {@link AsyncLogWriter#shared() shared log writer}.
      * 
      * @param string The message to log.
      */
 	
 	protected void log(String string) {
-		System.out.print(string);
-
-		if (WRITE_LOGS) {
-		try {
-			
-			Files.write(Paths.get("logs"+File.separator+"results"+File.separator+path), string.getBytes(), StandardOpenOption.APPEND);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		}
+		AsyncLogWriter.shared().print(string);
+		if (WRITE_LOGS)
+			AsyncLogWriter.shared().append(Paths.get("logs", "results", path), string);
 	}
 	
 	   /**
@@ -279,7 +506,7 @@ public class HenshinConflictDetection {
      * @param rules The list of Henshin rules to prepare.
      */
 
-	private static void prepareRules(List<Rule> rules) {
+	static void prepareRules(List<Rule> rules) {
 		List<Rule> prepared = new ArrayList<Rule>();
 		rules.removeAll(rules.stream().filter(r -> !r.getMultiRules().isEmpty()).collect(Collectors.toList()));
 		rules.forEach(r -> prepared.add(RulePreparator.prepareRule(r)));
@@ -298,7 +525,11 @@ public class HenshinConflictDetection {
 	 * one level up from the current working directory. This setup is typical for certain project configurations and
 	 * must be adjusted if the directory structure differs.
 	 *
-	 * @param args the command-line arguments (not used).
+	 * The analysis options, e.g. {@code --threads <n>}, are those of
+	 * {@link HenshinAnalysisDriver#parseOption}; any other argument replaces the "bank" folder, e.g.
+	 * with a folder written by {@link SyntheticRuleGenerator}.
+	 *
+	 * @param args the command-line arguments.
 	 */
 	
 	public static void main(String[] args) {
@@ -309,7 +540,17 @@ public class HenshinConflictDetection {
 
 		String henshinFolderPath = parentDir +File.separator+ "bank";
 		
-		new HenshinConflictDetection().run(granularities,henshinFolderPath);
+		HenshinAnalysisDriver driver = new HenshinAnalysisDriver();
+		for (int i = 0; i < args.length; i++) {
+			int last = driver.parseOption(args, i);
+			if (last < 0)
+				henshinFolderPath = args[i];
+			else
+				i = last;
+		}
+		driver.applyMeasurement();
+		driver.getConflictDetection().run(granularities,henshinFolderPath);
+		driver.closeRecords();
 
 	}
 
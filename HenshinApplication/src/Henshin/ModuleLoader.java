@@ -1,22 +1,108 @@
 package Henshin;
 
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.impl.EPackageRegistryImpl;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.BinaryResourceImpl;
+import org.eclipse.emf.ecore.resource.impl.ResourceFactoryImpl;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.emf.henshin.model.Module;
 import org.eclipse.emf.henshin.model.resource.HenshinResourceSet;
+import org.eclipse.emf.ecore.xmi.impl.EcoreResourceFactoryImpl;
 import org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Facilitates the loading of Henshin modules from a specified directory.
  * It utilizes the HenshinResourceSet for managing resources and supports loading modules
  * stored in the .henshin file format.
+ *
+ * Modules can also be converted to and loaded from EMF's binary resource format (file extension
+ * {@value #BINARY_EXTENSION}), which is considerably faster to parse than XMI. Many modules can be
+ * loaded in parallel with {@link #loadHenshinModules(List, int)}; each module then gets its own
+ * resource set, while the metamodels are loaded once and shared by all of them.
  */
 public class ModuleLoader {
 
+    /**
+     * The file extension of modules stored in the binary resource format.
+     */
+    public static final String BINARY_EXTENSION = "hbin";
+
+    private final String workingDirectory;
     private final HenshinResourceSet resourceSet;
+    private final List<LoadMetric> loadMetrics = Collections.synchronizedList(new ArrayList<LoadMetric>());
     private static final Logger logger = Logger.getLogger(ModuleLoader.class.getName());
 
+    /**
+     * The time and size of loading a single module file.
+     */
+    public static class LoadMetric {
+
+        private final String path;
+        private final long bytes;
+        private final long nanos;
+        private final int units;
+
+        LoadMetric(String path, long bytes, long nanos, int units) {
+            this.path = path;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.units = units;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return The load time in milliseconds.
+         */
+        public double getMillis() {
+            return nanos / 1e6;
+        }
+
+        /**
+         * @return The number of units of the loaded module (root objects for a metamodel), or -1 if
+         *         loading failed.
+         */
+        public int getUnits() {
+            return units;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%10.1f ms %12d bytes %6d units   %s", getMillis(), bytes, units, path);
+        }
+    }
+
     /**
      * Initializes a new instance of the ModuleLoader with a specified working directory.
      * The working directory is used by the HenshinResourceSet for loading modules.
@@ -25,8 +111,8 @@ public class ModuleLoader {
      * @param workingDirectory The directory path where Henshin modules are located.
      */
     public ModuleLoader(String workingDirectory) {
-        resourceSet = new HenshinResourceSet(workingDirectory);
-        resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("henshin", new XMIResourceFactoryImpl());
+        this.workingDirectory = workingDirectory;
+        resourceSet = createResourceSet();
     }
 
     /**
@@ -38,19 +124,205 @@ public class ModuleLoader {
      * @return The loaded Module if successful; otherwise, null.
      */
     public Module loadHenshinModule(String henshinModulePath) {
+        return loadHenshinModule(resourceSet, henshinModulePath);
+    }
+
+    /**
+     * Loads several Henshin modules in parallel. Every module is loaded into its own resource set.
+     * The metamodels (.ecore files) next to the modules are loaded once beforehand and shared by all
+     * resource sets, both by their location and by their namespace URI, so all modules refer to the
+     * same EClasses. The load time of every file is recorded, see {@link #getLoadMetrics()}.
+     *
+     * @param henshinModulePaths The relative or absolute paths to the module files (.henshin or .hbin).
+     * @param threads The number of loading threads, at least 1.
+     * @return The loaded modules in the order of the paths; null for modules that could not be loaded.
+     */
+    public List<Module> loadHenshinModules(List<String> henshinModulePaths, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1: " + threads);
+        List<Path> paths = henshinModulePaths.stream().map(this::resolve).collect(Collectors.toList());
+
+        // load the shared metamodels once
+        ResourceSet metamodels = new ResourceSetImpl();
+        metamodels.getResourceFactoryRegistry().getExtensionToFactoryMap().put("ecore", new EcoreResourceFactoryImpl());
+        EPackage.Registry packages = new EPackageRegistryImpl(EPackage.Registry.INSTANCE);
+        Map<URI, Resource> sharedResources = new HashMap<URI, Resource>();
+        for (Path metamodel : metamodelsNextTo(paths)) {
+            long start = System.nanoTime();
+            try {
+                Resource resource = metamodels.getResource(URI.createFileURI(metamodel.toString()), true);
+                sharedResources.put(resource.getURI(), resource);
+                for (EObject object : resource.getContents()) {
+                    if (object instanceof EPackage && ((EPackage) object).getNsURI() != null)
+                        packages.put(((EPackage) object).getNsURI(), object);
+                }
+                record(metamodel.toString(), start, resource.getContents().size());
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Error loading metamodel " + metamodel + ": " + e.getMessage(), e);
+                record(metamodel.toString(), start, -1);
+            }
+        }
+        EcoreUtil.resolveAll(metamodels);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Module>> pending = new ArrayList<Future<Module>>();
+            for (Path path : paths) {
+                pending.add(executor.submit(() -> {
+                    HenshinResourceSet isolated = createResourceSet();
+                    isolated.setPackageRegistry(packages);
+                    isolated.setURIResourceMap(new HashMap<URI, Resource>(sharedResources));
+                    return loadHenshinModule(isolated, path.toString());
+                }));
+            }
+            List<Module> modules = new ArrayList<Module>();
+            for (Future<Module> module : pending)
+                modules.add(module.get());
+            return modules;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading modules", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Loading modules failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Converts a Henshin module into the binary resource format. The binary file is written next to
+     * the source file, with the extension {@value #BINARY_EXTENSION} instead of .henshin, so that
+     * references to metamodels relative to the module stay valid.
+     *
+     * @param henshinModulePath The relative or absolute path to the Henshin module file.
+     * @return The path of the binary file, or null if the module could not be loaded or saved.
+     */
+    public String convertToBinary(String henshinModulePath) {
+        Module module = loadHenshinModule(henshinModulePath);
+        if (module == null)
+            return null;
+        String source = resolve(henshinModulePath).toString();
+        String target = source.replaceFirst("\\.henshin$", "") + "." + BINARY_EXTENSION;
+        try {
+            Resource resource = resourceSet.createResource(URI.createFileURI(target));
+            resource.getContents().add(EcoreUtil.copy(module));
+            resource.save(Collections.emptyMap());
+            resourceSet.getResources().remove(resource);
+            logger.log(Level.INFO, "Henshin Module converted to binary: " + target);
+            return target;
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.SEVERE, "Error converting Henshin Module: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The load metrics of all files loaded by this loader so far, in the order loading finished.
+     */
+    public List<LoadMetric> getLoadMetrics() {
+        synchronized (loadMetrics) {
+            return new ArrayList<LoadMetric>(loadMetrics);
+        }
+    }
+
+    private Module loadHenshinModule(HenshinResourceSet resourceSet, String henshinModulePath) {
+        long start = System.nanoTime();
         try {
             Module module = resourceSet.getModule(henshinModulePath);
             if (module != null) {
+                record(henshinModulePath, start, module.getUnits().size());
                 logger.log(Level.INFO, "Henshin Module loaded successfully: " + henshinModulePath);
                 return module;
             } else {
+                record(henshinModulePath, start, -1);
                 logger.log(Level.WARNING, "Failed to load the Henshin Module from: " + henshinModulePath);
                 return null;
             }
         } catch (Exception e) {
+            record(henshinModulePath, start, -1);
             logger.log(Level.SEVERE, "Error loading Henshin Module: " + e.getMessage(), e);
             return null;
         }
     }
 
-}
\ No newline at end of file
+    private void record(String path, long start, int units) {
+        long nanos = System.nanoTime() - start;
+        File file = resolve(path).toFile();
+        loadMetrics.add(new LoadMetric(path, file.length(), nanos, units));
+    }
+
+    private HenshinResourceSet createResourceSet() {
+        HenshinResourceSet resourceSet = new HenshinResourceSet(workingDirectory);
+        resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("henshin", new XMIResourceFactoryImpl());
+        resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put(BINARY_EXTENSION, new ResourceFactoryImpl() {
+            @Override
+            public Resource createResource(URI uri) {
+                return new BinaryResourceImpl(uri);
+            }
+        });
+        return resourceSet;
+    }
+
+    private Path resolve(String path) {
+        Path resolved = Paths.get(path);
+        if (!resolved.isAbsolute())
+            resolved = Paths.get(workingDirectory).resolve(resolved);
+        return resolved.toAbsolutePath().normalize();
+    }
+
+    private static List<Path> metamodelsNextTo(List<Path> modules) {
+        List<Path> metamodels = new ArrayList<Path>();
+        for (Path directory : modules.stream().map(Path::getParent).distinct().collect(Collectors.toList())) {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(file -> file.toString().endsWith(".ecore")).sorted().forEach(metamodels::add);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not list metamodels in " + directory, e);
+            }
+        }
+        return metamodels;
+    }
+
+    /**
+     * Loads all modules of the given files and folders in parallel and prints the load time of every
+     * file. {@code --threads <n>} sets the number of loading threads (default all processors) and
+     * {@code --binary} converts every .henshin module into the binary format first and loads the
+     * binary files instead.
+     *
+     * @param args the command-line arguments.
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean binary = false;
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads"))
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--binary"))
+                binary = true;
+            else if (new File(args[i]).isDirectory())
+                try (Stream<Path> files = Files.walk(Paths.get(args[i]))) {
+                    files.filter(file -> file.toString().endsWith(".henshin")).sorted()
+                            .forEach(file -> paths.add(file.toString()));
+                }
+            else
+                paths.add(args[i]);
+        }
+        HenshinAnalysisDriver.registerFactories();
+        ModuleLoader loader = new ModuleLoader("");
+        if (binary) {
+            for (int i = 0; i < paths.size(); i++) {
+                String converted = loader.convertToBinary(paths.get(i));
+                if (converted != null)
+                    paths.set(i, converted);
+            }
+            loader = new ModuleLoader("");
+        }
+        long start = System.nanoTime();
+        loader.loadHenshinModules(paths, threads);
+        long nanos = System.nanoTime() - start;
+        for (LoadMetric metric : loader.getLoadMetrics())
+            System.out.println(metric);
+        System.out.println(String.format(Locale.ROOT, "Loaded %d modules in %.1f ms.", paths.size(), nanos / 1e6));
+    }
+
+}
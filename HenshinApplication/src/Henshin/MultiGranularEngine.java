@@ -0,0 +1,944 @@
+package Henshin;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.henshin.model.Node;
+import org.eclipse.emf.henshin.model.Rule;
+import org.eclipse.emf.henshin.multicda.cda.MultiGranularAnalysis;
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * Computes the binary, coarse and fine results of a multi-granular analysis in a single pass over
+ * all rule pairs. For every pair exactly one {@link MultiGranularAnalysis} is created and asked for
+ * all requested granularities, so the prepared rule copies and the overlaps cached inside the
+ * analysis are shared between the granularities instead of being rebuilt for each of them.
+ *
+ * The pairs are distributed over a fixed thread pool. The analyses are
+ * {@link AnalysisKind#createAnalysis(Rule, Rule) constructed} one at a time, since the library names
+ * unnamed nodes through a shared counter, and only their computations run in parallel. Results are
+ * collected into a {@link ResultMatrix} at the position of their pair, so the outcome does not depend
+ * on the number of threads.
+ *
+ * Every computed cell is timed with {@link System#nanoTime()}, and {@link #setPhaseTimes(boolean) on
+ * request} split into the {@link ResultMatrix.Phase}s construction, overlap computation and result
+ * extraction. With {@link #setMeasurement(int, int)}
+ * a pair can be analysed repeatedly with a fresh analysis each time, after a number of discarded
+ * warm-up runs, to obtain the median, 95th percentile and maximum time of each cell.
+ *
+ * With a {@link #setHeapCeiling(long) heap ceiling} the engine trades the shared analysis for a
+ * bounded heap: the analysis is released after every granularity, and computations starting while
+ * the heap is above the ceiling wait for the running ones and run alone.
+ */
+public class MultiGranularEngine {
+
+	/**
+	 * The granularities supported by the engine, in the order they are computed for each pair.
+	 */
+	public static final List<Granularity> SUPPORTED_GRANULARITIES = List.of(
+			Granularity.binary,
+			Granularity.coarse,
+			Granularity.fine
+			);
+
+	// milliseconds between two checks of the time budgets
+	private static final long POLL_INTERVAL = 10;
+
+	// milliseconds a computation over the heap ceiling waits for the running ones
+	private static final long HEAP_WAIT = 10000;
+
+	private static final Logger logger = Logger.getLogger(MultiGranularEngine.class.getName());
+
+	private final AnalysisKind kind;
+
+	private int threads = 1;
+
+	private boolean cascade = false;
+
+	private boolean footprintPruning = false;
+
+	private PairResultCache cache;
+
+	private int warmups = 0;
+
+	private int repetitions = 1;
+
+	private boolean phaseTimes = false;
+
+	private PairListener pairListener;
+
+	private ExecutorService executor;
+
+	private PairShard shard;
+
+	private Path journalDirectory;
+
+	private boolean deduplication = false;
+
+	private PairCostModel costModel;
+
+	private long pairTimeout = 0;
+
+	private long runTimeout = 0;
+
+	private long heapCeiling = 0;
+
+	// admits the computations, and one at a time over the heap ceiling
+	private final HeapGate heapGate;
+
+	private final AtomicInteger serialised = new AtomicInteger();
+
+	/**
+	 * Creates a new engine.
+	 *
+	 * @param kind The kind of analysis run for each rule pair.
+	 */
+	public MultiGranularEngine(AnalysisKind kind) {
+		this.kind = kind;
+		this.heapGate = new HeapGate();
+	}
+
+	/**
+	 * Creates an engine with the analysis options of another one, e.g. for one of several concurrent
+	 * analyses, since an engine runs only one {@code analyse} call at a time. The thread pool or
+	 * shared executor, the cache, the cost model, the measurement, the time budgets and the heap
+	 * ceiling are taken over; both engines share the admission of computations, so that the ceiling holds for their
+	 * computations together. The pair listener, the shard and the journal directory belong to a
+	 * single run and are not taken over.
+	 *
+	 * @param template The engine whose options are copied.
+	 */
+	public MultiGranularEngine(MultiGranularEngine template) {
+		this.kind = template.kind;
+		this.threads = template.threads;
+		this.cascade = template.cascade;
+		this.footprintPruning = template.footprintPruning;
+		this.cache = template.cache;
+		this.warmups = template.warmups;
+		this.repetitions = template.repetitions;
+		this.phaseTimes = template.phaseTimes;
+		this.executor = template.executor;
+		this.deduplication = template.deduplication;
+		this.costModel = template.costModel;
+		this.pairTimeout = template.pairTimeout;
+		this.runTimeout = template.runTimeout;
+		this.heapCeiling = template.heapCeiling;
+		this.heapGate = template.heapGate;
+	}
+
+	/**
+	 * @return The kind of analysis run by this engine.
+	 */
+	public AnalysisKind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Sets the number of worker threads used to analyse the rule pairs.
+	 *
+	 * @param threads The number of threads, at least 1.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Number of threads must be at least 1: " + threads);
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Runs the pairs on a pool shared with other engines or concurrent analyses, instead of a pool of
+	 * {@link #setThreads(int) its own} per analysis. The shared pool is not shut down by the engine.
+	 * Workers abandoned by {@link #setTimeouts(long, long) timed-out} pairs are only replaced if the
+	 * pool is a {@link ThreadPoolExecutor}, whose size then grows permanently.
+	 *
+	 * @param executor The shared pool, or null for a pool per analysis.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Enables or disables the granularity cascade. In cascade mode the cheap binary result decides
+	 * whether the coarse and fine results are computed at all: a pair without a binary result gets 0
+	 * for every granularity, and a pair without coarse reasons gets 0 for fine. The binary result is
+	 * computed as a gate even if it is not among the requested granularities.
+	 *
+	 * @param cascade True to enable the cascade.
+	 */
+	public void setCascade(boolean cascade) {
+		this.cascade = cascade;
+	}
+
+	/**
+	 * Enables or disables pruning with a {@link RuleFootprintIndex}. Pairs whose footprints cannot
+	 * interact are answered with 0 for every granularity without running the analysis, and the number
+	 * of pruned pairs is reported on the console.
+	 *
+	 * @param footprintPruning True to enable footprint pruning.
+	 */
+	public void setFootprintPruning(boolean footprintPruning) {
+		this.footprintPruning = footprintPruning;
+	}
+
+	/**
+	 * Sets the persistent cache used to look up and store cell results. Only cells missing from the
+	 * cache are analysed; the analysis of a pair is not even created if all its cells are cached.
+	 *
+	 * @param cache The cache, or null to disable caching.
+	 */
+	public void setCache(PairResultCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets how often each pair is analysed. The warm-up runs are discarded; the times stored in the
+	 * result matrix are computed from the measured repetitions. Each run uses a fresh analysis, the
+	 * results are those of the last run.
+	 *
+	 * @param warmups The number of discarded warm-up runs per pair, at least 0.
+	 * @param repetitions The number of measured runs per pair, at least 1.
+	 */
+	public void setMeasurement(int warmups, int repetitions) {
+		if (warmups < 0)
+			throw new IllegalArgumentException("Number of warm-up runs must not be negative: " + warmups);
+		if (repetitions < 1)
+			throw new IllegalArgumentException("Number of repetitions must be at least 1: " + repetitions);
+		this.warmups = warmups;
+		this.repetitions = repetitions;
+	}
+
+	/**
+	 * Enables or disables storing the median time of each {@link ResultMatrix.Phase} of a cell in the
+	 * result matrix, in addition to its total time.
+	 *
+	 * @param phaseTimes True to store the phase times.
+	 */
+	public void setPhaseTimes(boolean phaseTimes) {
+		this.phaseTimes = phaseTimes;
+	}
+
+	/**
+	 * Sets a listener that is notified whenever a pair is finished, e.g. a {@link PairRecordWriter}.
+	 *
+	 * @param pairListener The listener, or null.
+	 */
+	public void setPairListener(PairListener pairListener) {
+		this.pairListener = pairListener;
+	}
+
+	/**
+	 * Restricts {@link #analyse(List, List)} to the pairs of one shard; the other cells stay 0.
+	 *
+	 * @param shard The shard, or null to analyse all pairs.
+	 */
+	public void setShard(PairShard shard) {
+		this.shard = shard;
+	}
+
+	/**
+	 * @return The shard analysed by this engine, or null if all pairs are analysed.
+	 */
+	public PairShard getShard() {
+		return shard;
+	}
+
+	/**
+	 * Enables checkpointing of {@link #analyse(List, List)} to a {@link PairJournal} in the given
+	 * directory. A run on the same rules and granularities resumes with the pairs missing from the
+	 * journal of a killed earlier run.
+	 *
+	 * @param journalDirectory The journal directory, or null to disable checkpointing.
+	 */
+	public void setJournalDirectory(Path journalDirectory) {
+		this.journalDirectory = journalDirectory;
+	}
+
+	/**
+	 * Enables or disables the deduplication of isomorphic rules. Rules with the same
+	 * {@link RuleFingerprint#canonical(Rule) canonical fingerprint}, i.e. isomorphic rules whose nodes
+	 * also have the same names, form a class, and of all pairs between the same two classes only one
+	 * is analysed; its results and times are copied to the others. Pairs of two different rules of the same class are kept apart from the pair of a rule
+	 * with itself. For K distinct rules this analyses about K² instead of N² pairs.
+	 *
+	 * @param deduplication True to enable deduplication.
+	 */
+	public void setDeduplication(boolean deduplication) {
+		this.deduplication = deduplication;
+	}
+
+	/**
+	 * Sets the model used to order the pairs. With a model, the pairs are handed to the thread pool
+	 * in order of decreasing predicted cost, so that the longest pairs do not start last; without one
+	 * they are submitted in row-major order. The order does not affect the results.
+	 *
+	 * @param costModel The cost model, or null.
+	 */
+	public void setCostModel(PairCostModel costModel) {
+		this.costModel = costModel;
+	}
+
+	/**
+	 * Sets time budgets for the analysis. A pair running longer than the pair timeout, and every pair
+	 * unfinished at the end of the run timeout, is cancelled and the run carries on with the next
+	 * pairs. The granularities of a cancelled pair computed so far keep their values, the others are
+	 * {@link ResultMatrix#isTimedOut(Granularity, int, int) marked as timed out}. The worker of a cancelled
+	 * pair is interrupted and stops after the computation it is running.
+	 *
+	 * @param pairTimeout The budget per pair in milliseconds, 0 for none.
+	 * @param runTimeout The budget for all pairs of one call of {@code analyse} in milliseconds, 0 for
+	 *                   none.
+	 */
+	public void setTimeouts(long pairTimeout, long runTimeout) {
+		if (pairTimeout < 0 || runTimeout < 0)
+			throw new IllegalArgumentException("Timeouts must not be negative: " + pairTimeout + ", " + runTimeout);
+		this.pairTimeout = pairTimeout;
+		this.runTimeout = runTimeout;
+	}
+
+	/**
+	 * Bounds the heap used by the analysis. Each granularity of a pair gets an analysis of its own,
+	 * which is released as soon as its reasons are counted, so the reasons of one granularity are no
+	 * longer retained while the next one is computed. A computation starting while more than the
+	 * ceiling is in use waits until the running computations have released their state, collects the
+	 * garbage and runs alone. If the running computations do not finish within a few seconds, it runs
+	 * anyway so that a stuck pair cannot block the run. Computations of pairs that ran over their
+	 * {@link #setTimeouts(long, long) time budget} are not waited for.
+	 *
+	 * @param heapCeiling The ceiling in bytes, 0 for an unbounded heap with one analysis per pair.
+	 */
+	public void setHeapCeiling(long heapCeiling) {
+		if (heapCeiling < 0)
+			throw new IllegalArgumentException("Heap ceiling must not be negative: " + heapCeiling);
+		this.heapCeiling = heapCeiling;
+	}
+
+	/**
+	 * Parses a heap ceiling given on the command line in megabytes, e.g. "512", or as a percentage of
+	 * the maximum heap, e.g. "75%".
+	 *
+	 * @return The ceiling in bytes.
+	 * @throws IllegalArgumentException If the ceiling is malformed.
+	 */
+	public static long parseHeapCeiling(String ceiling) {
+		try {
+			if (ceiling.endsWith("%"))
+				return (long) (Runtime.getRuntime().maxMemory()
+						* Double.parseDouble(ceiling.substring(0, ceiling.length() - 1)) / 100);
+			return Long.parseLong(ceiling) * 1024 * 1024;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Expected a heap ceiling in MB or % but got " + ceiling, e);
+		}
+	}
+
+	/**
+	 * Selects the cells of a result matrix that are to be analysed.
+	 */
+	@FunctionalInterface
+	public interface PairFilter {
+
+		/**
+		 * @param row The index of the first rule.
+		 * @param column The index of the second rule.
+		 * @return True if the pair is to be analysed.
+		 */
+		boolean accept(int row, int column);
+	}
+
+	/**
+	 * Is notified as soon as all granularities of a pair are stored in the result matrix, including
+	 * pruned pairs. It is called from the worker threads, in the order the pairs finish.
+	 */
+	@FunctionalInterface
+	public interface PairListener {
+
+		/**
+		 * @param results The matrix holding the results of the pair.
+		 * @param row The index of the first rule.
+		 * @param column The index of the second rule.
+		 */
+		void pairAnalysed(ResultMatrix results, int row, int column);
+	}
+
+	/**
+	 * Analyses every ordered pair of the given rules, or of the {@link #setShard(PairShard) shard},
+	 * once and returns the results for all requested granularities. With a journal directory, the
+	 * pairs finished by an earlier run are taken from its journal. An engine runs one analysis at a
+	 * time; concurrent analyses use engines {@link #MultiGranularEngine(MultiGranularEngine) created
+	 * from} a configured one.
+	 *
+	 * @param granularities The granularities to compute. Granularities other than binary, coarse and
+	 *                      fine are ignored.
+	 * @param rules The prepared rules.
+	 * @return The result matrix with one entry per pair and requested granularity.
+	 */
+	public ResultMatrix analyse(List<Granularity> granularities, List<Rule> rules) {
+		List<Granularity> requested = SUPPORTED_GRANULARITIES.stream()
+				.filter(granularities::contains)
+				.collect(Collectors.toList());
+		List<String> ruleNames = rules.stream().map(Rule::getName).collect(Collectors.toList());
+		ResultMatrix results = new ResultMatrix(kind, ruleNames, requested);
+		PairFilter filter = shard == null ? (row, column) -> true : shard.filter(rules.size());
+		if (journalDirectory == null) {
+			analyse(rules, results, filter, pairListener);
+			return results;
+		}
+
+		PairJournal journal = PairJournal.open(journalDirectory, rules, results, shard);
+		if (journal.getResumedPairs() > 0)
+			System.out.println("Resumed " + journal.getResumedPairs() + " " + kind.getLabel() + " pairs from "
+					+ journal.getFile());
+		try {
+			analyse(rules, results, journal.missing(filter, rules.size()), (matrix, row, column) -> {
+				journal.pairAnalysed(matrix, row, column);
+				if (pairListener != null)
+					pairListener.pairAnalysed(matrix, row, column);
+			});
+		} catch (RuntimeException e) {
+			journal.close();
+			throw e;
+		}
+		journal.complete();
+		return results;
+	}
+
+	/**
+	 * Analyses the selected pairs of the given rules and stores their results in an existing result
+	 * matrix. Cells not accepted by the filter are left untouched, which allows to complete a matrix
+	 * whose other cells are already known.
+	 *
+	 * @param rules The prepared rules, in the row order of the matrix.
+	 * @param results The matrix receiving the results; its granularities are computed.
+	 * @param filter Selects the pairs to analyse.
+	 */
+	public void analyse(List<Rule> rules, ResultMatrix results, PairFilter filter) {
+		analyse(rules, results, filter, pairListener);
+	}
+
+	private void analyse(List<Rule> rules, ResultMatrix results, PairFilter filter, PairListener listener) {
+		if (rules.size() != results.size())
+			throw new IllegalArgumentException("Expected " + results.size() + " rules but got " + rules.size());
+		List<Granularity> requested = SUPPORTED_GRANULARITIES.stream()
+				.filter(results::contains)
+				.collect(Collectors.toList());
+		if (requested.isEmpty())
+			return;
+
+		results.setRepetitions(repetitions);
+		serialised.set(0);
+		RuleFootprintIndex index = footprintPruning ? new RuleFootprintIndex(rules) : null;
+		List<String> fingerprints = cache == null ? null
+				: rules.stream().map(RuleFingerprint::of).collect(Collectors.toList());
+		List<Granularity> sequence = new ArrayList<Granularity>(requested);
+		if (cascade && !sequence.contains(Granularity.binary))
+			sequence.add(0, Granularity.binary);
+		int[] classes = deduplication ? canonicalClasses(rules) : null;
+		// the cells sharing the analysis of their first cell, keyed by the classes of the pair
+		Map<Long, List<int[]>> groups = new LinkedHashMap<Long, List<int[]>>();
+		List<PairTask> tasks = new ArrayList<PairTask>();
+		for (int i = 0; i < rules.size(); i++) {
+			for (int j = 0; j < rules.size(); j++) {
+				if (!filter.accept(i, j))
+					continue;
+				if (index != null && !index.mayInteract(kind, i, j)) {
+					results.clear(i, j);
+					if (listener != null)
+						listener.pairAnalysed(results, i, j);
+					continue;
+				}
+				if (classes != null) {
+					boolean twins = i != j && classes[i] == classes[j];
+					long key = ((long) classes[i] * rules.size() + classes[j]) * 2 + (twins ? 1 : 0);
+					groups.computeIfAbsent(key, k -> new ArrayList<int[]>()).add(new int[] { i, j });
+					continue;
+				}
+				tasks.add(new PairTask(i, j, Collections.<int[]>emptyList()));
+			}
+		}
+		for (List<int[]> group : groups.values())
+			tasks.add(new PairTask(group.get(0)[0], group.get(0)[1], group.subList(1, group.size())));
+		if (costModel != null) {
+			double[] costs = costModel.estimate(rules);
+			tasks.sort(Comparator.comparingDouble((PairTask task) -> costs[task.row * rules.size() + task.column])
+					.reversed());
+		}
+
+		boolean budget = pairTimeout > 0 || runTimeout > 0;
+		long runDeadline = runTimeout > 0 ? System.nanoTime() + runTimeout * 1000000 : Long.MAX_VALUE;
+		ExecutorService pool = executor;
+		if (pool == null) {
+			// abandoned workers must not keep the JVM alive
+			ThreadFactory factory = Executors.defaultThreadFactory();
+			pool = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = factory.newThread(runnable);
+				thread.setDaemon(budget);
+				return thread;
+			});
+		}
+		List<Future<?>> pending = new ArrayList<Future<?>>();
+		try {
+			for (PairTask task : tasks)
+				pending.add(pool.submit(
+						() -> analysePair(sequence, rules, fingerprints, results, task, runDeadline, listener)));
+			if (budget) {
+				await(pending, tasks, pool instanceof ThreadPoolExecutor ? (ThreadPoolExecutor) pool : null,
+						runDeadline, sequence, results, listener);
+			} else {
+				for (Future<?> pair : pending)
+					await(pair);
+			}
+		} finally {
+			if (pool != executor)
+				pool.shutdownNow();
+			else
+				pending.forEach(pair -> pair.cancel(true));
+		}
+		long timedOut = tasks.stream().filter(task -> task.timedOut).count();
+		if (timedOut > 0)
+			System.out.println("Timed out " + timedOut + " of " + tasks.size() + " " + kind.getLabel() + " pairs.");
+		if (serialised.get() > 0)
+			System.out.println("Ran " + serialised.get() + " " + kind.getLabel()
+					+ " computations alone above the heap ceiling of " + heapCeiling / (1024 * 1024) + " MB.");
+		if (classes != null) {
+			int grouped = groups.values().stream().mapToInt(List::size).sum();
+			System.out.println("Deduplicated " + rules.size() + " rules into "
+					+ Arrays.stream(classes).distinct().count() + " classes, analysed " + groups.size() + " of "
+					+ grouped + " " + kind.getLabel() + " pairs.");
+		}
+		if (index != null)
+			System.out.println("Footprint index pruned " + index.getPrunedPairs() + " of "
+					+ index.getCheckedPairs() + " " + kind.getLabel() + " pairs.");
+		if (cache != null) {
+			cache.evict();
+			System.out.println("Result cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses.");
+		}
+	}
+
+	/**
+	 * Analyses a single pair for the given sequence of granularities and stores the requested results.
+	 * Cached cells are taken from the cache and get a time of 0. For the other cells the pair is
+	 * analysed once per warm-up run and repetition; the analysis is created for the first missing
+	 * cell, and the time for constructing it is attributed to that cell. In cascade mode the remaining
+	 * granularities are left at 0 as soon as one granularity yields no result. If the pair runs over
+	 * its time budget, no further granularity is started and the pair is {@link #timeOut timed out}.
+	 */
+	private void analysePair(List<Granularity> sequence, List<Rule> rules, List<String> fingerprints,
+			ResultMatrix results, PairTask task, long runDeadline, PairListener listener) {
+		int row = task.row;
+		int column = task.column;
+		task.started = System.nanoTime();
+		long deadline = pairTimeout > 0 ? Math.min(runDeadline, task.started + pairTimeout * 1000000) : runDeadline;
+		int cells = sequence.size();
+		String[] keys = new String[cells];
+		Integer[] cached = new Integer[cells];
+		for (int g = 0; g < cells; g++) {
+			if (cache != null) {
+				keys[g] = PairResultCache.key(kind, sequence.get(g), fingerprints.get(row), fingerprints.get(column));
+				cached[g] = cache.get(keys[g]);
+			}
+			if (cascade && cached[g] != null && cached[g] == 0)
+				break;
+		}
+
+		int[] values = new int[cells];
+		long[] times = new long[cells];
+		task.times = times;
+		task.values = values;
+		int computed = 0;
+		// [granularity][phase][repetition]
+		long[][][] phases = new long[cells][ResultMatrix.Phase.values().length][repetitions];
+		for (int run = 0; run < warmups + repetitions; run++) {
+			int repetition = run - warmups;
+			MultiGranularAnalysis analysis = null;
+			boolean measured = false;
+			computed = 0;
+			for (int g = 0; g < cells; g++) {
+				Integer result = cached[g];
+				if (result == null) {
+					if (System.nanoTime() > deadline) {
+						timeOut(sequence, results, task, listener);
+						return;
+					}
+					if (!enterHeap(task))
+						return; // timed out meanwhile, the results are discarded
+					long start = System.nanoTime();
+					long constructed;
+					long finished;
+					long extracted;
+					try {
+						if (analysis == null)
+							analysis = kind.createAnalysis(rules.get(row), rules.get(column));
+						constructed = System.nanoTime();
+						Object raw = compute(analysis, sequence.get(g));
+						finished = System.nanoTime();
+						result = extract(sequence.get(g), raw);
+						extracted = System.nanoTime();
+					} finally {
+						leaveHeap(task);
+					}
+					measured = true;
+					times[g] = extracted - start;
+					if (heapCeiling > 0)
+						analysis = null; // release the reasons retained by the analysis
+					if (repetition >= 0) {
+						phases[g][ResultMatrix.Phase.CONSTRUCTION.ordinal()][repetition] = constructed - start;
+						phases[g][ResultMatrix.Phase.COMPUTATION.ordinal()][repetition] = finished - constructed;
+						phases[g][ResultMatrix.Phase.EXTRACTION.ordinal()][repetition] = extracted - finished;
+					}
+				}
+				values[g] = result;
+				computed++;
+				if (computed > task.completed)
+					task.completed = computed;
+				if (cascade && result == 0)
+					break;
+			}
+			if (!measured)
+				break; // everything was cached, nothing to measure
+		}
+
+		if (!task.finish())
+			return; // timed out meanwhile
+		results.clear(row, column);
+		for (int g = 0; g < computed; g++) {
+			Granularity granularity = sequence.get(g);
+			if (cached[g] == null && keys[g] != null)
+				cache.put(keys[g], values[g]);
+			if (!results.contains(granularity))
+				continue;
+			results.set(granularity, row, column, values[g]);
+			if (cached[g] != null)
+				continue;
+			long[] totals = new long[repetitions];
+			for (ResultMatrix.Phase phase : ResultMatrix.Phase.values()) {
+				long[] samples = phases[g][phase.ordinal()];
+				for (int r = 0; r < repetitions; r++)
+					totals[r] += samples[r];
+				if (phaseTimes)
+					results.setPhaseTime(granularity, phase, row, column, median(samples));
+			}
+			results.setTime(granularity, row, column, totals);
+		}
+		publish(results, task, listener);
+	}
+
+	/**
+	 * Stores a pair that ran over its time budget, unless its results were stored already. The
+	 * granularities computed so far keep their values and the time of their last computation; the
+	 * others are marked as timed out, with the time spent on the pair as their time.
+	 *
+	 * @return True if the pair was timed out, false if it had finished.
+	 */
+	private boolean timeOut(List<Granularity> sequence, ResultMatrix results, PairTask task, PairListener listener) {
+		if (!task.finish())
+			return false;
+		task.timedOut = true;
+		leaveHeap(task); // the abandoned worker must not hold up the others
+		long elapsed = task.started == 0 ? 0 : System.nanoTime() - task.started;
+		int[] values = task.values;
+		long[] times = task.times;
+		int completed = values == null ? 0 : task.completed;
+		// in cascade mode a 0 decides the remaining granularities
+		boolean decided = cascade && completed > 0 && values[completed - 1] == 0;
+		results.clear(task.row, task.column);
+		for (int g = 0; g < sequence.size(); g++) {
+			Granularity granularity = sequence.get(g);
+			if (!results.contains(granularity))
+				continue;
+			if (g < completed) {
+				results.set(granularity, task.row, task.column, values[g]);
+				if (times[g] > 0) // 0 for cached results
+					results.setTime(granularity, task.row, task.column, new long[] { times[g] });
+			} else if (!decided) {
+				results.setTimedOut(granularity, task.row, task.column, true);
+				results.setTime(granularity, task.row, task.column, new long[] { elapsed });
+			}
+		}
+		publish(results, task, listener);
+		return true;
+	}
+
+	// Copies the stored pair to the cells sharing its analysis and notifies the listener.
+	private static void publish(ResultMatrix results, PairTask task, PairListener listener) {
+		if (listener != null)
+			listener.pairAnalysed(results, task.row, task.column);
+		for (int[] cell : task.copies) {
+			results.copyCell(results, task.row, task.column, cell[0], cell[1]);
+			if (listener != null)
+				listener.pairAnalysed(results, cell[0], cell[1]);
+		}
+	}
+
+	/**
+	 * Waits for all pairs while enforcing the time budgets. Pairs running longer than the pair timeout,
+	 * and all unfinished pairs once the run deadline has passed, are timed out and their workers are
+	 * interrupted. Since the analysis does not necessarily react to interrupts, the pool, if given,
+	 * gets a replacement thread for every abandoned worker.
+	 */
+	private void await(List<Future<?>> pending, List<PairTask> tasks, ThreadPoolExecutor executor, long runDeadline,
+			List<Granularity> sequence, ResultMatrix results, PairListener listener) {
+		while (true) {
+			boolean running = false;
+			long now = System.nanoTime();
+			for (int t = 0; t < pending.size(); t++) {
+				Future<?> future = pending.get(t);
+				PairTask task = tasks.get(t);
+				if (task.timedOut)
+					continue;
+				if (future.isDone()) {
+					await(future);
+					continue;
+				}
+				long started = task.started;
+				boolean overdue = pairTimeout > 0 && started != 0 && now - started > pairTimeout * 1000000;
+				if ((overdue || now > runDeadline) && timeOut(sequence, results, task, listener)) {
+					future.cancel(true);
+					if (started != 0 && executor != null) {
+						executor.setMaximumPoolSize(executor.getMaximumPoolSize() + 1);
+						executor.setCorePoolSize(executor.getCorePoolSize() + 1);
+					}
+					continue;
+				}
+				running = true;
+			}
+			if (!running)
+				return;
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the pair analysis", e);
+			}
+		}
+	}
+
+	/**
+	 * Numbers the classes of rules with equal canonical fingerprints in the order of their first rule.
+	 * Rules whose types come from different loaded instances of a metamodel never interact, so the
+	 * instances of the packages of the node types are part of the class as well.
+	 *
+	 * @return The class of each rule.
+	 */
+	static int[] canonicalClasses(List<Rule> rules) {
+		int[] classes = new int[rules.size()];
+		Map<String, Integer> first = new HashMap<String, Integer>();
+		Map<EPackage, Integer> packages = new IdentityHashMap<EPackage, Integer>();
+		for (int i = 0; i < rules.size(); i++) {
+			TreeSet<Integer> used = new TreeSet<Integer>();
+			for (Iterator<EObject> contents = rules.get(i).eAllContents(); contents.hasNext();) {
+				EObject content = contents.next();
+				if (content instanceof Node && ((Node) content).getType() != null)
+					used.add(packages.computeIfAbsent(((Node) content).getType().getEPackage(), p -> packages.size()));
+			}
+			String key = RuleFingerprint.canonical(rules.get(i)) + used;
+			classes[i] = first.computeIfAbsent(key, fingerprint -> first.size());
+		}
+		return classes;
+	}
+
+	/**
+	 * Admits a computation of a pair. Above the heap ceiling the computation waits until the running
+	 * computations have finished, collects the garbage and runs alone. Computations of timed-out pairs
+	 * are no longer counted, since their abandoned workers may still run for a long time.
+	 *
+	 * @return False if the pair was timed out or its worker interrupted, in which case nothing is
+	 *         computed.
+	 */
+	private boolean enterHeap(PairTask task) {
+		if (heapCeiling == 0)
+			return !task.timedOut && !Thread.currentThread().isInterrupted();
+		HeapGate gate = heapGate;
+		boolean alone = false;
+		try {
+			synchronized (gate) {
+				if (task.timedOut)
+					return false;
+				if (usedHeap() > heapCeiling) {
+					long deadline = System.nanoTime() + HEAP_WAIT * 1000000;
+					gate.waiting++;
+					try {
+						for (long left = HEAP_WAIT; (gate.running > 0 || gate.alone) && left > 0;
+								left = (deadline - System.nanoTime()) / 1000000)
+							gate.wait(left);
+					} finally {
+						gate.waiting--;
+						gate.notifyAll();
+					}
+					if (task.timedOut)
+						return false;
+					alone = gate.running == 0 && !gate.alone;
+					if (!alone)
+						logger.warning("Running a " + kind.getLabel() + " computation above the heap ceiling, "
+								+ "the running computations did not finish within " + HEAP_WAIT + " ms");
+				} else {
+					while (gate.alone || gate.waiting > 0)
+						gate.wait();
+					if (task.timedOut)
+						return false;
+				}
+				if (alone)
+					gate.alone = true;
+				else
+					gate.running++;
+				task.heapHold = alone ? PairTask.ALONE : PairTask.RUNNING;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); // timed out, the result is discarded anyway
+			return false;
+		}
+		if (alone) {
+			System.gc();
+			serialised.incrementAndGet();
+		}
+		return true;
+	}
+
+	/**
+	 * Ends the computation admitted by {@link #enterHeap}, if it is still counted.
+	 */
+	private void leaveHeap(PairTask task) {
+		if (heapCeiling == 0)
+			return;
+		synchronized (heapGate) {
+			if (task.heapHold == PairTask.ALONE)
+				heapGate.alone = false;
+			else if (task.heapHold == PairTask.RUNNING)
+				heapGate.running--;
+			else
+				return;
+			task.heapHold = PairTask.NONE;
+			heapGate.notifyAll();
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	static Object compute(MultiGranularAnalysis analysis, Granularity granularity) {
+		switch (granularity) {
+		case binary:
+			return analysis.computeResultsBinary();
+		case coarse:
+			return analysis.computeResultsCoarse();
+		case fine:
+			return analysis.computeResultsFine();
+		default:
+			throw new IllegalArgumentException("Unsupported granularity " + granularity);
+		}
+	}
+
+	static int extract(Granularity granularity, Object result) {
+		if (granularity == Granularity.binary)
+			return result == null ? 0 : 1;
+		return ((Collection<?>) result).size();
+	}
+
+	private static long median(long[] samples) {
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		return sorted[(sorted.length - 1) / 2];
+	}
+
+	private static void await(Future<?> pair) {
+		try {
+			pair.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the pair analysis", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Pair analysis failed", e.getCause());
+		}
+	}
+
+	/**
+	 * The computations admitted by {@link MultiGranularEngine#enterHeap}. Computations waiting to run
+	 * alone keep new ones from being admitted.
+	 */
+	private static final class HeapGate {
+
+		int running;
+
+		boolean alone;
+
+		int waiting;
+	}
+
+	/**
+	 * A pair to analyse, the cells its results are copied to, and the progress needed to time it out.
+	 */
+	private static final class PairTask {
+
+		static final int NONE = 0;
+
+		static final int RUNNING = 1;
+
+		static final int ALONE = 2;
+
+		final int row;
+
+		final int column;
+
+		final List<int[]> copies;
+
+		// System.nanoTime() when the analysis started, 0 before
+		volatile long started;
+
+		// the values of the sequence, valid for the first completed granularities
+		volatile int[] values;
+
+		// the time in nanoseconds of the last computation of each granularity, set before the values
+		volatile long[] times;
+
+		volatile int completed;
+
+		volatile boolean timedOut;
+
+		// whether the computation of the pair is counted by the heap gate, guarded by the gate
+		int heapHold = NONE;
+
+		private boolean finished;
+
+		PairTask(int row, int column, List<int[]> copies) {
+			this.row = row;
+			this.column = column;
+			this.copies = copies;
+		}
+
+		/**
+		 * @return True for the first caller, who stores the results of the pair.
+		 */
+		synchronized boolean finish() {
+			if (finished)
+				return false;
+			finished = true;
+			return true;
+		}
+	}
+
+}
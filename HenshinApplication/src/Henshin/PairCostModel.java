@@ -0,0 +1,201 @@
+package Henshin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.henshin.model.Edge;
+import org.eclipse.emf.henshin.model.Node;
+import org.eclipse.emf.henshin.model.Rule;
+
+/**
+ * Predicts the cost of analysing a rule pair, so that the {@link MultiGranularEngine} can start the
+ * most expensive pairs first and no long pair is left running alone at the end of a parallel run.
+ *
+ * The prediction is taken from earlier time logs of the same detection: the times of a pair over all
+ * granularities of a run are added up, and the runs are averaged. Both the current format with
+ * fractional milliseconds, optionally as median/p95/max, and the older integer format are read; the
+ * per-phase sections are skipped. Cells with a time of 0 were not computed in their run, e.g. because
+ * they were cached, pruned, skipped by the cascade or left to another shard, and a pair without any
+ * computed cell does not count as a run of that pair. Pairs without history fall back to the product
+ * of the rule sizes, counted in nodes and edges of all graphs, scaled to milliseconds by the ratio
+ * observed on the pairs with history.
+ */
+public class PairCostModel {
+
+	/**
+	 * The number of most recent time logs read.
+	 */
+	public static final int MAX_LOGS = 20;
+
+	private static final Logger logger = Logger.getLogger(PairCostModel.class.getName());
+
+	// "first second" -> {sum of the run totals, number of runs}
+	private final Map<String, double[]> history = new HashMap<String, double[]>();
+
+	/**
+	 * Creates a model without history, which only uses the rule sizes.
+	 */
+	public PairCostModel() {
+	}
+
+	/**
+	 * Creates a model from the most recent time logs in a directory, e.g. "logs/time/HenshinConflictDetection".
+	 * Unreadable logs are skipped.
+	 *
+	 * @param directory The time log directory; it does not need to exist.
+	 * @return The model.
+	 */
+	public static PairCostModel fromTimeLogs(Path directory) {
+		PairCostModel model = new PairCostModel();
+		if (!Files.isDirectory(directory))
+			return model;
+		List<Path> logs;
+		try (Stream<Path> files = Files.list(directory)) {
+			logs = files.filter(file -> file.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not list time logs in " + directory, e);
+			return model;
+		}
+		for (Path log : logs.subList(Math.max(0, logs.size() - MAX_LOGS), logs.size())) {
+			try {
+				model.addRun(Files.readAllLines(log, StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not read time log " + log, e);
+			}
+		}
+		return model;
+	}
+
+	/**
+	 * Adds the pair times of one time log.
+	 *
+	 * @param lines The lines of the log.
+	 */
+	void addRun(List<String> lines) {
+		Map<String, Double> totals = new HashMap<String, Double>();
+		List<String> names = new ArrayList<String>();
+		List<double[]> rows = new ArrayList<double[]>();
+		boolean phase = false;
+		for (String line : lines) {
+			int separator = line.lastIndexOf(" | ");
+			double[] row = separator < 0 ? null : parseRow(line.substring(0, separator));
+			if (row == null) {
+				addBlock(names, rows, phase, totals);
+				phase = line.trim().endsWith("(ms):");
+				continue;
+			}
+			names.add(line.substring(separator + 3).trim());
+			rows.add(row);
+		}
+		addBlock(names, rows, phase, totals);
+		for (Map.Entry<String, Double> total : totals.entrySet()) {
+			if (total.getValue() <= 0)
+				continue; // not computed in this run
+			double[] runs = history.computeIfAbsent(total.getKey(), key -> new double[2]);
+			runs[0] += total.getValue();
+			runs[1]++;
+		}
+	}
+
+	// Adds a square matrix of the cell times of one granularity; phase sections are skipped. Cells
+	// that were not computed have a time of 0 and add nothing to the total of their pair.
+	private static void addBlock(List<String> names, List<double[]> rows, boolean phase, Map<String, Double> totals) {
+		if (!phase && !rows.isEmpty() && rows.stream().allMatch(row -> row.length == rows.size())) {
+			for (int i = 0; i < rows.size(); i++) {
+				for (int j = 0; j < rows.size(); j++)
+					totals.merge(key(names.get(i), names.get(j)), rows.get(i)[j], Double::sum);
+			}
+		}
+		names.clear();
+		rows.clear();
+	}
+
+	// Returns null if the text is no row of times.
+	private static double[] parseRow(String text) {
+		String[] cells = text.trim().split("\\s+");
+		if (cells.length == 0 || cells[0].isEmpty())
+			return null;
+		double[] row = new double[cells.length];
+		try {
+			for (int i = 0; i < cells.length; i++) {
+				int slash = cells[i].indexOf('/');
+				row[i] = Double.parseDouble(slash < 0 ? cells[i] : cells[i].substring(0, slash));
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return row;
+	}
+
+	private static String key(String first, String second) {
+		return first + " " + second;
+	}
+
+	/**
+	 * @return The average total time in milliseconds of a pair in the logged runs, or -1 if the pair
+	 *         was never logged.
+	 */
+	public double getHistory(String first, String second) {
+		double[] runs = history.get(key(first, second));
+		return runs == null ? -1 : runs[0] / runs[1];
+	}
+
+	/**
+	 * Estimates the cost of all pairs of a list of rules.
+	 *
+	 * @param rules The prepared rules.
+	 * @return The estimated time in milliseconds of each pair in row-major order.
+	 */
+	public double[] estimate(List<Rule> rules) {
+		int size = rules.size();
+		double[] sizes = new double[size];
+		for (int i = 0; i < size; i++)
+			sizes[i] = size(rules.get(i));
+		double[] costs = new double[size * size];
+		double logged = 0;
+		double heuristic = 0;
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				costs[i * size + j] = getHistory(rules.get(i).getName(), rules.get(j).getName());
+				if (costs[i * size + j] >= 0) {
+					logged += costs[i * size + j];
+					heuristic += sizes[i] * sizes[j];
+				}
+			}
+		}
+		double scale = logged > 0 && heuristic > 0 ? logged / heuristic : 1;
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				if (costs[i * size + j] < 0)
+					costs[i * size + j] = scale * sizes[i] * sizes[j];
+			}
+		}
+		return costs;
+	}
+
+	/**
+	 * @return The number of nodes and edges in all graphs of a rule.
+	 */
+	static int size(Rule rule) {
+		int size = 0;
+		for (Iterator<EObject> contents = rule.eAllContents(); contents.hasNext();) {
+			EObject content = contents.next();
+			if (content instanceof Node || content instanceof Edge)
+				size++;
+		}
+		return size;
+	}
+
+}
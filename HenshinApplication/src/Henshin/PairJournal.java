@@ -0,0 +1,202 @@
+package Henshin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+
+import org.eclipse.emf.henshin.model.Rule;
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * An append-only journal of the finished pairs of one analysis, so that a killed run can be resumed
+ * with only the missing pairs. The journal is named after a key over the analysis kind, the
+ * granularities, the {@link PairShard shard} and the names and {@link RuleFingerprint}s of the rules
+ * in matrix order; a run on a different rule set or with other granularities therefore starts a
+ * journal of its own.
+ *
+ * Every finished pair is appended as one line holding its row, column and, per granularity, the
+ * value and the median total time in nanoseconds. Lines are handed to the operating system as soon
+ * as a pair is finished and forced to disk at most once per sync interval. A truncated last line,
+ * as left by a crash, is ignored on resume. Timed-out pairs are not journaled, so a resumed run
+ * retries them. The journal is deleted once the analysis is complete.
+ */
+public class PairJournal implements MultiGranularEngine.PairListener, AutoCloseable {
+
+	// Part of the key, to be changed whenever the line format changes.
+	private static final String FORMAT = "pair-journal-1";
+
+	private static final long DEFAULT_SYNC_INTERVAL = 5000;
+
+	private final Path file;
+
+	private final FileChannel channel;
+
+	private final BitSet finished;
+
+	private final int resumed;
+
+	private final long syncInterval;
+
+	private long lastSync = System.currentTimeMillis();
+
+	private PairJournal(Path file, FileChannel channel, BitSet finished, int resumed, long syncInterval) {
+		this.file = file;
+		this.channel = channel;
+		this.finished = finished;
+		this.resumed = resumed;
+		this.syncInterval = syncInterval;
+	}
+
+	/**
+	 * Opens the journal of an analysis in the given directory and copies the pairs finished by earlier
+	 * runs into the result matrix.
+	 *
+	 * @param directory The journal directory; it is created if necessary.
+	 * @param rules The prepared rules, in matrix order.
+	 * @param results The empty result matrix of the analysis.
+	 * @param shard The shard of the analysis, or null if all pairs are analysed.
+	 * @return The open journal.
+	 * @throws UncheckedIOException If the journal cannot be read or opened.
+	 */
+	public static PairJournal open(Path directory, List<Rule> rules, ResultMatrix results, PairShard shard) {
+		StringBuilder key = new StringBuilder(FORMAT).append('\n')
+				.append(results.getKind().getLabel()).append('\n')
+				.append(results.getGranularities()).append('\n')
+				.append(shard == null ? "all" : shard.toString()).append('\n');
+		for (Rule rule : rules)
+			key.append(rule.getName()).append(' ').append(RuleFingerprint.of(rule)).append('\n');
+		Path file = directory.resolve(results.getKind().getLabel() + "-" + RuleFingerprint.sha256(key.toString())
+				+ ".journal");
+		try {
+			Files.createDirectories(directory);
+			BitSet finished = new BitSet(results.size() * results.size());
+			int resumed = 0;
+			if (Files.isRegularFile(file)) {
+				for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+					if (restore(line, results, finished))
+						resumed++;
+				}
+			}
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+			return new PairJournal(file, channel, finished, resumed, DEFAULT_SYNC_INTERVAL);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not open pair journal " + file, e);
+		}
+	}
+
+	// Returns false for malformed lines, e.g. the truncated last line of a crashed run.
+	private static boolean restore(String line, ResultMatrix results, BitSet finished) {
+		List<Granularity> granularities = results.getGranularities();
+		String[] fields = line.trim().split(" ");
+		if (fields.length != 2 + 2 * granularities.size())
+			return false;
+		try {
+			int row = Integer.parseInt(fields[0]);
+			int column = Integer.parseInt(fields[1]);
+			int[] values = new int[granularities.size()];
+			long[] times = new long[granularities.size()];
+			for (int g = 0; g < granularities.size(); g++) {
+				values[g] = Integer.parseInt(fields[2 + 2 * g]);
+				times[g] = Long.parseLong(fields[3 + 2 * g]);
+			}
+			for (int g = 0; g < granularities.size(); g++) {
+				results.set(granularities.get(g), row, column, values[g]);
+				results.setTime(granularities.get(g), row, column, new long[] { times[g] });
+			}
+			int index = row * results.size() + column;
+			boolean restored = !finished.get(index);
+			finished.set(index);
+			return restored;
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return The number of pairs restored from earlier runs.
+	 */
+	public int getResumedPairs() {
+		return resumed;
+	}
+
+	/**
+	 * @return The journal file.
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Restricts a filter to the pairs not finished by earlier runs.
+	 *
+	 * @param filter The filter of the pairs to analyse.
+	 * @param size The number of rules.
+	 * @return The filter accepting only the missing pairs.
+	 */
+	public MultiGranularEngine.PairFilter missing(MultiGranularEngine.PairFilter filter, int size) {
+		return (row, column) -> !finished.get(row * size + column) && filter.accept(row, column);
+	}
+
+	@Override
+	public void pairAnalysed(ResultMatrix results, int row, int column) {
+		if (results.isTimedOut(row, column))
+			return;
+		StringBuilder line = new StringBuilder().append(row).append(' ').append(column);
+		for (Granularity granularity : results.getGranularities()) {
+			line.append(' ').append(results.get(granularity, row, column))
+					.append(' ').append(results.getTime(granularity, row, column));
+		}
+		append(line.append('\n').toString());
+	}
+
+	private synchronized void append(String line) {
+		try {
+			ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+			while (bytes.hasRemaining())
+				channel.write(bytes);
+			long now = System.currentTimeMillis();
+			if (now - lastSync >= syncInterval) {
+				channel.force(false);
+				lastSync = now;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write pair journal " + file, e);
+		}
+	}
+
+	/**
+	 * Closes and deletes the journal after the analysis has finished all pairs.
+	 */
+	public synchronized void complete() {
+		close();
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not delete pair journal " + file, e);
+		}
+	}
+
+	/**
+	 * Forces the journal to disk and closes it, keeping it for a later resume.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!channel.isOpen())
+			return;
+		try {
+			channel.force(false);
+			channel.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not close pair journal " + file, e);
+		}
+	}
+
+}
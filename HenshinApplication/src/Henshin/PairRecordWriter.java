@@ -0,0 +1,121 @@
+package Henshin;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * Streams the results of a {@link MultiGranularEngine} as newline-delimited JSON while the analysis
+ * is running. As soon as a pair is finished, one record per granularity is appended, e.g.
+ *
+ * <pre>
+ * {"kind":"conflict","first":"createAccount","second":"deleteAccount","granularity":"binary","result":1,"durationMs":0.412}
+ * </pre>
+ *
+ * The duration is the median total time of the cell. Cells cancelled by a time budget get
+ * {@code "timedOut":true} and the result 0. Records are written in the order the pairs
+ * finish, which with several threads is not the matrix order. Every record is flushed immediately,
+ * so the output can be followed with {@code tail -f}. One writer can be shared by several engines.
+ */
+public class PairRecordWriter implements MultiGranularEngine.PairListener, AutoCloseable {
+
+	private final Writer out;
+
+	private final boolean console;
+
+	/**
+	 * Creates a writer appending to the given file, which is created if necessary.
+	 *
+	 * @param file The file to append to.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public PairRecordWriter(Path file) throws IOException {
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+		this.console = false;
+	}
+
+	/**
+	 * Creates a writer printing to standard output.
+	 */
+	public PairRecordWriter() {
+		this.out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		this.console = true;
+	}
+
+	/**
+	 * Opens the target given on the command line: "-" for standard output, otherwise a file path.
+	 *
+	 * @param target The target.
+	 * @return The writer.
+	 * @throws UncheckedIOException If the file cannot be opened.
+	 */
+	public static PairRecordWriter open(String target) {
+		if (target.equals("-"))
+			return new PairRecordWriter();
+		try {
+			return new PairRecordWriter(Paths.get(target));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not open " + target, e);
+		}
+	}
+
+	@Override
+	public void pairAnalysed(ResultMatrix results, int row, int column) {
+		StringBuilder records = new StringBuilder();
+		for (Granularity granularity : results.getGranularities())
+			records.append(record(results, granularity, row, column)).append('\n');
+		write(records.toString());
+	}
+
+	/**
+	 * Formats the record of one cell.
+	 */
+	static String record(ResultMatrix results, Granularity granularity, int row, int column) {
+		return "{\"kind\":" + ResultMatrixIO.json(results.getKind().getLabel())
+				+ ",\"first\":" + ResultMatrixIO.json(results.getRuleNames().get(row))
+				+ ",\"second\":" + ResultMatrixIO.json(results.getRuleNames().get(column))
+				+ ",\"granularity\":" + ResultMatrixIO.json(granularity.name())
+				+ ",\"result\":" + results.get(granularity, row, column)
+				+ ",\"durationMs\":" + String.format(Locale.ROOT, "%.3f", results.getTime(granularity, row, column) / 1e6)
+				+ (results.isTimedOut(granularity, row, column) ? ",\"timedOut\":true" : "")
+				+ "}";
+	}
+
+	private synchronized void write(String records) {
+		try {
+			out.write(records);
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write pair records", e);
+		}
+	}
+
+	/**
+	 * Flushes the output and closes it unless it is standard output.
+	 */
+	@Override
+	public synchronized void close() {
+		try {
+			if (console)
+				out.flush();
+			else
+				out.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not close pair records", e);
+		}
+	}
+
+}
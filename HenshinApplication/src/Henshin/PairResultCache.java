@@ -0,0 +1,173 @@
+package Henshin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * A persistent, content-addressed cache for the results of pairwise analyses. Each entry is keyed by
+ * the analysis kind, the granularity and the {@link RuleFingerprint}s of both rules, and stores the
+ * cell value (the binary flag or the number of reasons). Entries are small files in the cache
+ * directory.
+ *
+ * The cache can be shared between concurrent runs: entries are written to a temporary file and
+ * moved into place atomically, and readers treat missing or unreadable entries as misses. Reading
+ * an entry refreshes its modification time, which {@link #evict()} uses to drop the least recently
+ * used entries once the cache grows beyond its maximum number of entries.
+ */
+public class PairResultCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	private static final Logger logger = Logger.getLogger(PairResultCache.class.getName());
+
+	private final Path directory;
+
+	private final int maxEntries;
+
+	private final AtomicInteger hits = new AtomicInteger();
+
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * Creates a cache in the given directory holding at most {@link #DEFAULT_MAX_ENTRIES} entries.
+	 *
+	 * @param directory The cache directory; it is created if necessary.
+	 */
+	public PairResultCache(Path directory) {
+		this(directory, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Creates a cache in the given directory.
+	 *
+	 * @param directory The cache directory; it is created if necessary.
+	 * @param maxEntries The number of entries kept by {@link #evict()}.
+	 */
+	public PairResultCache(Path directory, int maxEntries) {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("Cache must hold at least one entry: " + maxEntries);
+		this.directory = directory;
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Computes the cache key of a cell.
+	 *
+	 * @param kind The analysis kind.
+	 * @param granularity The granularity of the cell.
+	 * @param fingerprint1 The fingerprint of the first rule.
+	 * @param fingerprint2 The fingerprint of the second rule.
+	 * @return The key of the cell.
+	 */
+	public static String key(AnalysisKind kind, Granularity granularity, String fingerprint1, String fingerprint2) {
+		return RuleFingerprint.sha256(kind.getLabel() + ' ' + granularity + ' ' + fingerprint1 + ' ' + fingerprint2);
+	}
+
+	/**
+	 * Looks up a cell.
+	 *
+	 * @param key The key of the cell, see {@link #key}.
+	 * @return The cached value, or null if the cell is not cached.
+	 */
+	public Integer get(String key) {
+		Path entry = entry(key);
+		try {
+			int value = Integer.parseInt(new String(Files.readAllBytes(entry), StandardCharsets.UTF_8).trim());
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+			hits.incrementAndGet();
+			return value;
+		} catch (NoSuchFileException e) {
+			// not cached
+		} catch (IOException | NumberFormatException e) {
+			logger.log(Level.FINE, "Ignoring unreadable cache entry " + entry, e);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Stores a cell. Failures are logged and otherwise ignored, since the cache is only an optimisation.
+	 *
+	 * @param key The key of the cell, see {@link #key}.
+	 * @param value The value of the cell.
+	 */
+	public void put(String key, int value) {
+		Path entry = entry(key);
+		try {
+			Files.createDirectories(entry.getParent());
+			Path temp = Files.createTempFile(entry.getParent(), key, ".tmp");
+			Files.write(temp, Integer.toString(value).getBytes(StandardCharsets.UTF_8));
+			try {
+				Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not write cache entry " + entry, e);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until at most the maximum number of entries remain.
+	 * Entries removed concurrently by another run are skipped.
+	 */
+	public void evict() {
+		if (!Files.isDirectory(directory))
+			return;
+		try (Stream<Path> files = Files.walk(directory)) {
+			List<Path> entries = files
+					.filter(Files::isRegularFile)
+					.filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+					.collect(Collectors.toList());
+			if (entries.size() <= maxEntries)
+				return;
+			entries.sort(Comparator.comparingLong(PairResultCache::lastModified));
+			for (Path file : entries.subList(0, entries.size() - maxEntries))
+				Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not evict cache entries from " + directory, e);
+		}
+	}
+
+	/**
+	 * @return The number of cache hits since the cache was created.
+	 */
+	public int getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of cache misses since the cache was created.
+	 */
+	public int getMisses() {
+		return misses.get();
+	}
+
+	private Path entry(String key) {
+		return directory.resolve(key.substring(0, 2)).resolve(key);
+	}
+
+	private static long lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file).toMillis();
+		} catch (IOException e) {
+			return Long.MIN_VALUE;
+		}
+	}
+
+}
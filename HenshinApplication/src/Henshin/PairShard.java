@@ -0,0 +1,90 @@
+package Henshin;
+
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A deterministic slice of the pair space of a result matrix, for spreading one analysis over
+ * several processes. Shard {@code i} of {@code n} (1-based) owns the cells whose row-major index
+ * {@code row * size + column} is congruent to {@code i - 1} modulo {@code n}. The cells of a row are
+ * thereby dealt round-robin to all shards, so expensive rules are shared evenly as well.
+ *
+ * Each shard writes its matrix in the {@link ResultMatrixIO.Format#BINARY binary format} to a shard
+ * directory; the cells of other shards stay 0. {@link ShardMerger} combines the files of all shards.
+ */
+public class PairShard {
+
+	private static final Pattern SHARD = Pattern.compile("(\\d+)/(\\d+)");
+
+	private static final Pattern SHARD_FILE = Pattern.compile("(\\w+)\\.shard-(\\d+)-of-(\\d+)\\.hrm");
+
+	private final int index;
+
+	private final int count;
+
+	/**
+	 * @param index The 1-based number of this shard.
+	 * @param count The total number of shards.
+	 */
+	public PairShard(int index, int count) {
+		if (count < 1 || index < 1 || index > count)
+			throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * Parses a shard given as "i/n", e.g. "2/4".
+	 *
+	 * @throws IllegalArgumentException If the shard is malformed.
+	 */
+	public static PairShard parse(String shard) {
+		Matcher matcher = SHARD.matcher(shard.trim());
+		if (!matcher.matches())
+			throw new IllegalArgumentException("Expected a shard as i/n but got " + shard);
+		return new PairShard(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+	}
+
+	/**
+	 * Parses the shard from the name of a shard file, see {@link #file(Path, AnalysisKind)}.
+	 *
+	 * @return The shard, or null if the file is no shard file.
+	 */
+	public static PairShard ofFile(Path file) {
+		Matcher matcher = SHARD_FILE.matcher(file.getFileName().toString());
+		if (!matcher.matches())
+			return null;
+		return new PairShard(Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)));
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @param size The number of rules of the matrix.
+	 * @return A filter accepting the cells of this shard.
+	 */
+	public MultiGranularEngine.PairFilter filter(int size) {
+		return (row, column) -> ((long) row * size + column) % count == index - 1;
+	}
+
+	/**
+	 * @return The file of this shard in the given directory for the given kind of analysis, e.g.
+	 *         "conflict.shard-2-of-4.hrm".
+	 */
+	public Path file(Path directory, AnalysisKind kind) {
+		return directory.resolve(kind.getLabel() + ".shard-" + index + "-of-" + count + ".hrm");
+	}
+
+	@Override
+	public String toString() {
+		return index + "/" + count;
+	}
+
+}
@@ -0,0 +1,193 @@
+package Henshin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.BinaryResourceImpl;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.xmi.impl.EcoreResourceFactoryImpl;
+import org.eclipse.emf.henshin.model.HenshinFactory;
+import org.eclipse.emf.henshin.model.HenshinPackage;
+import org.eclipse.emf.henshin.model.Module;
+import org.eclipse.emf.henshin.model.Rule;
+import org.eclipse.emf.henshin.model.Unit;
+import org.eclipse.emf.henshin.preprocessing.HenshinRuleLoader;
+
+/**
+ * Caches the prepared rules of a rule folder on disk, so that later runs can skip loading the XMI
+ * modules and running the {@link org.eclipse.emf.henshin.preprocessing.RulePreparator}. The prepared
+ * rules are stored in one EMF {@link BinaryResourceImpl binary resource} per rule folder, named after
+ * a hash over the paths and contents of all Henshin modules and metamodels of the folder. Any change
+ * to a source file therefore leads to a new entry; the types of the rules stay references into the
+ * original metamodel files.
+ *
+ * Stale entries are not deleted automatically; the cache directory can be removed at any time.
+ */
+public class PreparedRuleCache {
+
+	// Part of the key, to be changed whenever the stored format or the preparation changes.
+	private static final String FORMAT = "prepared-rules-1";
+
+	private static final Logger logger = Logger.getLogger(PreparedRuleCache.class.getName());
+
+	private final Path directory;
+
+	/**
+	 * Creates a cache in the given directory.
+	 *
+	 * @param directory The cache directory; it is created if necessary.
+	 */
+	public PreparedRuleCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the prepared rules of a folder, from the cache if the sources are unchanged and
+	 * otherwise by loading and preparing them, in which case the result is added to the cache.
+	 *
+	 * @param henshinFolderPath The directory path where the Henshin modules are located.
+	 * @return The prepared rules, without multi-rules.
+	 */
+	public List<Rule> getRules(String henshinFolderPath) {
+		File folder = new File(henshinFolderPath);
+		if (!folder.isDirectory()) {
+			System.out.println("Directory does not exist: " + henshinFolderPath);
+			return new ArrayList<Rule>();
+		}
+		HenshinAnalysisDriver.registerFactories();
+		HenshinPackage.eINSTANCE.eClass();
+
+		Path entry = null;
+		try {
+			entry = directory.resolve(key(folder.toPath()) + ".bin");
+			if (Files.isRegularFile(entry)) {
+				List<Rule> rules = read(entry);
+				if (rules != null)
+					return rules;
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not read prepared rules from " + entry, e);
+		}
+
+		List<Rule> rules = new ArrayList<Rule>(HenshinRuleLoader.loadAllRulesFromFileSystemPaths(folder));
+		HenshinConflictDetection.prepareRules(rules);
+		if (entry != null)
+			write(entry, rules);
+		return rules;
+	}
+
+	/**
+	 * Computes the key of a folder from the relative paths and contents of its modules and metamodels,
+	 * including those in subdirectories visited by the {@link HenshinRuleLoader}.
+	 */
+	static String key(Path folder) throws IOException {
+		return hash(folder, sources(folder));
+	}
+
+	/**
+	 * Computes a key of a folder like {@link #key(Path)}, but from its metamodels only.
+	 */
+	static String metamodelKey(Path folder) throws IOException {
+		return hash(folder, sources(folder).stream()
+				.filter(file -> file.toString().endsWith(".ecore"))
+				.collect(Collectors.toList()));
+	}
+
+	private static String hash(Path folder, List<Path> paths) throws IOException {
+		StringBuilder sources = new StringBuilder(FORMAT).append('\n');
+		for (Path path : paths) {
+			sources.append(folder.relativize(path)).append(' ')
+					.append(RuleFingerprint.sha256(Files.readAllBytes(path))).append('\n');
+		}
+		return RuleFingerprint.sha256(sources.toString());
+	}
+
+	/**
+	 * Describes the modules and metamodels of a folder by their relative paths, sizes and modification
+	 * times, without reading them. A folder whose stamp is unchanged is assumed to have the same
+	 * {@link #key(Path) key}, which avoids hashing all sources to detect that nothing changed.
+	 */
+	static String stamp(Path folder) throws IOException {
+		StringBuilder stamp = new StringBuilder();
+		for (Path path : sources(folder)) {
+			stamp.append(folder.relativize(path)).append(' ').append(Files.size(path)).append(' ')
+					.append(Files.getLastModifiedTime(path).toMillis()).append('\n');
+		}
+		return stamp.toString();
+	}
+
+	private static List<Path> sources(Path folder) throws IOException {
+		try (Stream<Path> files = Files.walk(folder)) {
+			return files
+					.filter(Files::isRegularFile)
+					.filter(file -> file.toString().endsWith(".henshin") || file.toString().endsWith(".ecore"))
+					.filter(file -> isLoaderDirectory(folder, file.getParent()))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static boolean isLoaderDirectory(Path folder, Path directory) {
+		for (Path path = directory; !path.equals(folder); path = path.getParent()) {
+			if (path.getFileName().toString().contains("."))
+				return false;
+		}
+		return true;
+	}
+
+	private static List<Rule> read(Path entry) throws IOException {
+		ResourceSet resourceSet = new ResourceSetImpl();
+		resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("ecore", new EcoreResourceFactoryImpl());
+		Resource resource = new BinaryResourceImpl(URI.createFileURI(entry.toAbsolutePath().toString()));
+		resourceSet.getResources().add(resource);
+		resource.load(Collections.emptyMap());
+		if (resource.getContents().isEmpty() || !(resource.getContents().get(0) instanceof Module))
+			return null;
+		EcoreUtil.resolveAll(resourceSet);
+		List<Rule> rules = new ArrayList<Rule>();
+		for (Unit unit : ((Module) resource.getContents().get(0)).getUnits())
+			rules.add((Rule) unit);
+		return rules;
+	}
+
+	// Stores copies of the rules, so that the returned rules stay in their original modules.
+	private static void write(Path entry, List<Rule> rules) {
+		try {
+			Files.createDirectories(entry.getParent());
+			Module module = HenshinFactory.eINSTANCE.createModule();
+			module.setName("prepared");
+			for (Rule rule : rules) {
+				if (rule.getModule() == null)
+					continue;
+				for (EPackage imported : rule.getModule().getImports()) {
+					if (!module.getImports().contains(imported))
+						module.getImports().add(imported);
+				}
+			}
+			module.getUnits().addAll(EcoreUtil.copyAll(rules));
+			Path temp = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".tmp");
+			Resource resource = new BinaryResourceImpl(URI.createFileURI(temp.toAbsolutePath().toString()));
+			resource.getContents().add(module);
+			resource.save(Collections.emptyMap());
+			Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.WARNING, "Could not write prepared rules to " + entry, e);
+		}
+	}
+
+}
@@ -0,0 +1,437 @@
+package Henshin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * Holds the results of a pairwise multi-granular analysis over a list of rules. For every requested
+ * granularity it stores one square matrix of cell values (0/1 for binary, the number of reasons for
+ * coarse and fine) together with the time spent on each cell. Rows and columns follow the order of
+ * the rule names the matrix was created with.
+ *
+ * The values are stored compactly: binary results as a {@link BitSet} with one bit per cell, all
+ * other granularities as one flat {@code int[]} in row-major order. For 1,000 rules the values of
+ * binary, coarse and fine take about 8 MB. Matrices can be written to and read from files with
+ * {@link ResultMatrixIO}.
+ *
+ * Times are kept in nanoseconds, stored as one {@code float} per cell, which is exact to well below
+ * a microsecond for cells of up to several seconds. Each time array is only allocated once a time is
+ * set in it, so matrices read from files carry no time storage: the median total time of a cell
+ * takes 4 MB per granularity for 1,000 rules, the 95th percentile and maximum another 8 MB once a
+ * cell is measured more than once, and the median time of each {@link Phase} another 12 MB if phase
+ * times are set. A single run of binary, coarse and fine over 1,000 rules thus keeps 12 MB of times,
+ * and up to 72 MB with repetitions and phase times.
+ *
+ * Cells whose analysis was cancelled by a time budget are marked as timed out per granularity; their
+ * value is 0 and they are shown as "T" by {@link #formatValue(Granularity, int, int)}.
+ */
+public class ResultMatrix {
+
+	/**
+	 * The phases of analysing a single cell.
+	 */
+	public enum Phase {
+		/** Creating the ConflictAnalysis or DependencyAnalysis of the pair. */
+		CONSTRUCTION("construction"),
+		/** Computing the overlaps and reasons of the granularity. */
+		COMPUTATION("computation"),
+		/** Turning the computed result into the cell value. */
+		EXTRACTION("extraction");
+
+		private final String label;
+
+		private Phase(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	/**
+	 * Statistics of the total cell time over the measured repetitions.
+	 */
+	public enum Statistic {
+		MEDIAN, P95, MAX
+	}
+
+	private final AnalysisKind kind;
+
+	private final List<String> ruleNames;
+
+	private final int size;
+
+	private final Map<Granularity, BitSet> bits = new EnumMap<Granularity, BitSet>(Granularity.class);
+
+	private final Map<Granularity, int[]> counts = new EnumMap<Granularity, int[]>(Granularity.class);
+
+	// [statistic][row * size + column], each layer allocated on first use; without the 95th
+	// percentile and maximum layers, all statistics equal the median
+	private final Map<Granularity, float[][]> times = new EnumMap<Granularity, float[][]>(Granularity.class);
+
+	// [phase][row * size + column], each layer allocated on first use
+	private final Map<Granularity, float[][]> phaseTimes = new EnumMap<Granularity, float[][]>(Granularity.class);
+
+	// allocated on first use
+	private final Map<Granularity, BitSet> timedOut = new EnumMap<Granularity, BitSet>(Granularity.class);
+
+	private int repetitions = 1;
+
+	/**
+	 * Creates an empty result matrix.
+	 *
+	 * @param kind The kind of analysis the results belong to.
+	 * @param ruleNames The names of the rules spanning the rows and columns.
+	 * @param granularities The granularities for which results are stored.
+	 */
+	public ResultMatrix(AnalysisKind kind, List<String> ruleNames, List<Granularity> granularities) {
+		this.kind = kind;
+		this.ruleNames = Collections.unmodifiableList(new ArrayList<String>(ruleNames));
+		this.size = ruleNames.size();
+		for (Granularity granularity : granularities) {
+			if (granularity == Granularity.binary)
+				bits.put(granularity, new BitSet(size * size));
+			else
+				counts.put(granularity, new int[size * size]);
+		}
+	}
+
+	/**
+	 * @return The kind of analysis the results belong to.
+	 */
+	public AnalysisKind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return The number of rules, i.e. the number of rows and columns.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The names of the rules in row order.
+	 */
+	public List<String> getRuleNames() {
+		return ruleNames;
+	}
+
+	/**
+	 * @param granularity The granularity to check.
+	 * @return True if results for the given granularity are stored in this matrix.
+	 */
+	public boolean contains(Granularity granularity) {
+		return bits.containsKey(granularity) || counts.containsKey(granularity);
+	}
+
+	/**
+	 * @return The granularities stored in this matrix.
+	 */
+	public List<Granularity> getGranularities() {
+		List<Granularity> granularities = new ArrayList<Granularity>();
+		for (Granularity granularity : Granularity.values()) {
+			if (contains(granularity))
+				granularities.add(granularity);
+		}
+		return granularities;
+	}
+
+	public int get(Granularity granularity, int row, int column) {
+		int index = index(row, column);
+		BitSet binary = bits.get(granularity);
+		if (binary != null) {
+			synchronized (binary) {
+				return binary.get(index) ? 1 : 0;
+			}
+		}
+		return counts(granularity)[index];
+	}
+
+	/**
+	 * Sets the value of a cell. For binary, every value other than 0 is stored as 1.
+	 */
+	public void set(Granularity granularity, int row, int column, int value) {
+		int index = index(row, column);
+		BitSet binary = bits.get(granularity);
+		if (binary != null) {
+			synchronized (binary) {
+				binary.set(index, value != 0);
+			}
+		} else {
+			counts(granularity)[index] = value;
+		}
+	}
+
+	/**
+	 * @return True if the analysis of the given cell was cancelled before the granularity was computed.
+	 */
+	public boolean isTimedOut(Granularity granularity, int row, int column) {
+		int index = index(row, column);
+		synchronized (timedOut) {
+			BitSet cells = timedOut.get(granularity);
+			return cells != null && cells.get(index);
+		}
+	}
+
+	/**
+	 * @return True if the analysis of the given cell timed out for any granularity.
+	 */
+	public boolean isTimedOut(int row, int column) {
+		for (Granularity granularity : getGranularities()) {
+			if (isTimedOut(granularity, row, column))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Marks a cell as timed out, or clears the mark. A timed-out cell has the value 0.
+	 */
+	public void setTimedOut(Granularity granularity, int row, int column, boolean timeout) {
+		int index = index(row, column);
+		if (!contains(granularity))
+			throw new IllegalArgumentException("No results for granularity " + granularity);
+		if (timeout)
+			set(granularity, row, column, 0);
+		synchronized (timedOut) {
+			BitSet cells = timedOut.get(granularity);
+			if (cells == null && timeout) {
+				cells = new BitSet(size * size);
+				timedOut.put(granularity, cells);
+			}
+			if (cells != null)
+				cells.set(index, timeout);
+		}
+	}
+
+	/**
+	 * @return The timed-out cells of a granularity in row-major order, or null if there are none. The
+	 *         set is backed by this matrix.
+	 */
+	BitSet getTimedOut(Granularity granularity) {
+		synchronized (timedOut) {
+			BitSet cells = timedOut.get(granularity);
+			return cells == null || cells.isEmpty() ? null : cells;
+		}
+	}
+
+	/**
+	 * Formats the value of a cell for the results log: "T" if the cell timed out, otherwise the value.
+	 */
+	public String formatValue(Granularity granularity, int row, int column) {
+		return isTimedOut(granularity, row, column) ? "T" : String.valueOf(get(granularity, row, column));
+	}
+
+	/**
+	 * @return The bits of a binary granularity in row-major order. The set is backed by this matrix.
+	 */
+	BitSet getBits(Granularity granularity) {
+		BitSet binary = bits.get(granularity);
+		if (binary == null)
+			throw new IllegalArgumentException("No bit matrix for granularity " + granularity);
+		return binary;
+	}
+
+	/**
+	 * @return The values of a granularity other than binary in row-major order. The array is backed by
+	 *         this matrix.
+	 */
+	int[] getCounts(Granularity granularity) {
+		return counts(granularity);
+	}
+
+	/**
+	 * @return The median time in nanoseconds spent computing the given cell.
+	 */
+	public long getTime(Granularity granularity, int row, int column) {
+		return getTime(granularity, Statistic.MEDIAN, row, column);
+	}
+
+	/**
+	 * @return The given statistic of the time in nanoseconds spent computing the given cell.
+	 */
+	public long getTime(Granularity granularity, Statistic statistic, int row, int column) {
+		int index = index(row, column);
+		float[] layer = timeLayer(times, granularity, Statistic.values().length, statistic.ordinal(), false);
+		if (layer == null && statistic != Statistic.MEDIAN)
+			layer = timeLayer(times, granularity, Statistic.values().length, Statistic.MEDIAN.ordinal(), false);
+		return layer == null ? 0 : (long) layer[index];
+	}
+
+	/**
+	 * Sets the total time of a cell from the measured repetitions.
+	 *
+	 * @param samples The total time in nanoseconds of each measured repetition.
+	 */
+	public void setTime(Granularity granularity, int row, int column, long[] samples) {
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		setTime(granularity, index(row, column), sorted[(sorted.length - 1) / 2],
+				sorted[(int) Math.ceil(0.95 * sorted.length) - 1], sorted[sorted.length - 1]);
+	}
+
+	private void setTime(Granularity granularity, int index, long median, long p95, long max) {
+		storeTime(times, granularity, Statistic.values().length, Statistic.MEDIAN.ordinal(), index, median, true);
+		storeTime(times, granularity, Statistic.values().length, Statistic.P95.ordinal(), index, p95, p95 != median);
+		storeTime(times, granularity, Statistic.values().length, Statistic.MAX.ordinal(), index, max, max != median);
+	}
+
+	/**
+	 * @return The median time in nanoseconds spent in the given phase of the given cell.
+	 */
+	public long getPhaseTime(Granularity granularity, Phase phase, int row, int column) {
+		float[] layer = timeLayer(phaseTimes, granularity, Phase.values().length, phase.ordinal(), false);
+		return layer == null ? 0 : (long) layer[index(row, column)];
+	}
+
+	public void setPhaseTime(Granularity granularity, Phase phase, int row, int column, long time) {
+		storeTime(phaseTimes, granularity, Phase.values().length, phase.ordinal(), index(row, column), time, true);
+	}
+
+	/**
+	 * @return True if the time of any phase is set for a cell of the given granularity.
+	 */
+	public boolean hasPhaseTimes(Granularity granularity) {
+		if (!contains(granularity))
+			throw new IllegalArgumentException("No results for granularity " + granularity);
+		synchronized (phaseTimes) {
+			return phaseTimes.containsKey(granularity);
+		}
+	}
+
+	/**
+	 * Formats the time of a cell in milliseconds for the time log: the median if the cell was measured
+	 * once, otherwise median, 95th percentile and maximum separated by slashes.
+	 */
+	public String formatTime(Granularity granularity, int row, int column) {
+		if (repetitions <= 1)
+			return millis(getTime(granularity, row, column));
+		return millis(getTime(granularity, Statistic.MEDIAN, row, column)) + "/"
+				+ millis(getTime(granularity, Statistic.P95, row, column)) + "/"
+				+ millis(getTime(granularity, Statistic.MAX, row, column));
+	}
+
+	/**
+	 * Formats the median time of a phase of a cell in milliseconds for the time log.
+	 */
+	public String formatPhaseTime(Granularity granularity, Phase phase, int row, int column) {
+		return millis(getPhaseTime(granularity, phase, row, column));
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	/**
+	 * @return The number of measured repetitions per cell the times are computed from.
+	 */
+	public int getRepetitions() {
+		return repetitions;
+	}
+
+	public void setRepetitions(int repetitions) {
+		this.repetitions = repetitions;
+	}
+
+	/**
+	 * Resets the values and times of a cell to 0 for all granularities.
+	 */
+	public void clear(int row, int column) {
+		int index = index(row, column);
+		for (Granularity granularity : getGranularities()) {
+			set(granularity, row, column, 0);
+			setTimedOut(granularity, row, column, false);
+			for (int layer = 0; layer < Statistic.values().length; layer++)
+				storeTime(times, granularity, Statistic.values().length, layer, index, 0, false);
+			for (int layer = 0; layer < Phase.values().length; layer++)
+				storeTime(phaseTimes, granularity, Phase.values().length, layer, index, 0, false);
+		}
+	}
+
+	/**
+	 * Copies the values and times of a cell of another matrix with the same granularities into a cell
+	 * of this matrix.
+	 *
+	 * @param source The matrix to copy from.
+	 * @param sourceRow The row of the cell in the source matrix.
+	 * @param sourceColumn The column of the cell in the source matrix.
+	 * @param row The row of the cell in this matrix.
+	 * @param column The column of the cell in this matrix.
+	 */
+	public void copyCell(ResultMatrix source, int sourceRow, int sourceColumn, int row, int column) {
+		int index = index(row, column);
+		for (Granularity granularity : getGranularities()) {
+			set(granularity, row, column, source.get(granularity, sourceRow, sourceColumn));
+			setTimedOut(granularity, row, column, source.isTimedOut(granularity, sourceRow, sourceColumn));
+			long median = source.getTime(granularity, Statistic.MEDIAN, sourceRow, sourceColumn);
+			storeTime(times, granularity, Statistic.values().length, Statistic.MEDIAN.ordinal(), index, median,
+					median != 0);
+			long p95 = source.getTime(granularity, Statistic.P95, sourceRow, sourceColumn);
+			storeTime(times, granularity, Statistic.values().length, Statistic.P95.ordinal(), index, p95, p95 != median);
+			long max = source.getTime(granularity, Statistic.MAX, sourceRow, sourceColumn);
+			storeTime(times, granularity, Statistic.values().length, Statistic.MAX.ordinal(), index, max, max != median);
+			for (Phase phase : Phase.values()) {
+				long time = source.getPhaseTime(granularity, phase, sourceRow, sourceColumn);
+				storeTime(phaseTimes, granularity, Phase.values().length, phase.ordinal(), index, time, time != 0);
+			}
+		}
+	}
+
+	private int index(int row, int column) {
+		if (row < 0 || row >= size || column < 0 || column >= size)
+			throw new IndexOutOfBoundsException("Cell (" + row + ", " + column + ") outside of " + size + "x" + size);
+		return row * size + column;
+	}
+
+	private int[] counts(Granularity granularity) {
+		int[] values = counts.get(granularity);
+		if (values == null)
+			throw new IllegalArgumentException("No results for granularity " + granularity);
+		return values;
+	}
+
+	// Cells are analysed concurrently, so the lazily allocated time arrays are created under a lock.
+	// The 95th percentile and maximum layers start as a copy of the medians, which they equal for all
+	// cells set before them.
+	private float[] timeLayer(Map<Granularity, float[][]> matrices, Granularity granularity, int layers, int layer,
+			boolean create) {
+		if (!contains(granularity))
+			throw new IllegalArgumentException("No results for granularity " + granularity);
+		synchronized (matrices) {
+			float[][] matrix = matrices.get(granularity);
+			if (matrix == null) {
+				if (!create)
+					return null;
+				matrix = new float[layers][];
+				matrices.put(granularity, matrix);
+			}
+			if (matrix[layer] == null && create) {
+				float[] medians = matrix[Statistic.MEDIAN.ordinal()];
+				matrix[layer] = matrices == times && layer != Statistic.MEDIAN.ordinal() && medians != null
+						? medians.clone()
+						: new float[size * size];
+			}
+			return matrix[layer];
+		}
+	}
+
+	// Stores a time in its layer, which is only allocated if the time is needed. Once allocated, the
+	// layer receives every time.
+	private void storeTime(Map<Granularity, float[][]> matrices, Granularity granularity, int layers, int layer,
+			int index, long time, boolean needed) {
+		float[] values = timeLayer(matrices, granularity, layers, layer, needed);
+		if (values != null)
+			values[index] = time;
+	}
+
+}
@@ -0,0 +1,409 @@
+package Henshin;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * Writes {@link ResultMatrix result matrices} in machine-readable formats and reads them back.
+ * <ul>
+ * <li>{@link Format#BINARY} is a compact format holding the analysis kind, the rule names and the
+ * raw bit and count arrays of all granularities, followed by the timed-out cells if there are any.
+ * It is read back with a single file read by {@link #read(Path)}.</li>
+ * <li>{@link Format#CSV} writes one matrix row per line, preceded by the granularity and the rule
+ * name of the row; the header line lists the column rules. Timed-out cells are written as "T".</li>
+ * <li>{@link Format#JSON} writes one object with the kind, the rules and one nested array per
+ * granularity. Timed-out cells are null.</li>
+ * </ul>
+ * Times are not exported; they are kept in the time logs.
+ */
+public class ResultMatrixIO {
+
+	/**
+	 * The export formats.
+	 */
+	public enum Format {
+		BINARY("hrm"), CSV("csv"), JSON("json");
+
+		private final String extension;
+
+		private Format(String extension) {
+			this.extension = extension;
+		}
+
+		/**
+		 * @return The file extension of the format, without dot.
+		 */
+		public String getExtension() {
+			return extension;
+		}
+	}
+
+	// "HRM" followed by the format version
+	private static final int MAGIC = 0x48524D01;
+
+	private static final byte BITS = 0;
+
+	private static final byte COUNTS = 1;
+
+	/**
+	 * The line closing each complete set of matrices in a results log, see {@link #readLog}.
+	 */
+	public static final String LOG_COMPLETE = "# complete";
+
+	private ResultMatrixIO() {
+	}
+
+	/**
+	 * Writes a matrix in the given format. The file is replaced if it exists.
+	 *
+	 * @param results The matrix to write.
+	 * @param format The format.
+	 * @param file The target file.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public static void write(ResultMatrix results, Format format, Path file) throws IOException {
+		switch (format) {
+		case BINARY:
+			writeBinary(results, file);
+			break;
+		case CSV:
+			try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+				writeCsv(results, out);
+			}
+			break;
+		case JSON:
+			try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+				writeJson(results, out);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Writes a matrix in each of the given formats, to files named like the given base path with the
+	 * extension of the format appended.
+	 *
+	 * @param results The matrix to write.
+	 * @param formats The formats.
+	 * @param base The target path without extension; missing directories are created.
+	 * @throws IOException If a file cannot be written.
+	 */
+	public static void export(ResultMatrix results, List<Format> formats, Path base) throws IOException {
+		if (base.getParent() != null)
+			Files.createDirectories(base.getParent());
+		for (Format format : formats)
+			write(results, format, base.resolveSibling(base.getFileName() + "." + format.getExtension()));
+	}
+
+	/**
+	 * Parses a comma-separated list of formats given by name or extension, e.g. "binary,csv" or
+	 * "hrm,json".
+	 *
+	 * @throws IllegalArgumentException If a format is unknown.
+	 */
+	public static List<Format> parseFormats(String formats) {
+		List<Format> parsed = new ArrayList<Format>();
+		for (String name : formats.split(",")) {
+			Format found = null;
+			for (Format format : Format.values()) {
+				if (format.name().equalsIgnoreCase(name.trim()) || format.getExtension().equalsIgnoreCase(name.trim()))
+					found = format;
+			}
+			if (found == null)
+				throw new IllegalArgumentException("Unknown export format " + name);
+			parsed.add(found);
+		}
+		return parsed;
+	}
+
+	/**
+	 * Reads a matrix written in the {@link Format#BINARY binary format}.
+	 *
+	 * @param file The file to read.
+	 * @return The matrix, without times.
+	 * @throws IOException If the file cannot be read or is not a result matrix.
+	 */
+	public static ResultMatrix read(Path file) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+		try {
+			if (in.getInt() != MAGIC)
+				throw new IOException("Not a result matrix file: " + file);
+			AnalysisKind kind = AnalysisKind.fromLabel(readString(in));
+			int size = in.getInt();
+			List<String> ruleNames = new ArrayList<String>();
+			for (int i = 0; i < size; i++)
+				ruleNames.add(readString(in));
+			int count = in.getInt();
+			List<Granularity> granularities = new ArrayList<Granularity>();
+			int start = in.position();
+			for (int i = 0; i < count; i++) {
+				granularities.add(Granularity.valueOf(readString(in)));
+				skipValues(in);
+			}
+			ResultMatrix results = new ResultMatrix(kind, ruleNames, granularities);
+			in.position(start);
+			for (int i = 0; i < count; i++) {
+				Granularity granularity = Granularity.valueOf(readString(in));
+				if (in.get() == BITS) {
+					long[] words = new long[in.getInt()];
+					in.asLongBuffer().get(words);
+					in.position(in.position() + words.length * Long.BYTES);
+					results.getBits(granularity).or(BitSet.valueOf(words));
+				} else {
+					int[] values = results.getCounts(granularity);
+					if (in.getInt() != values.length)
+						throw new IOException("Unexpected number of cells in " + file);
+					in.asIntBuffer().get(values);
+					in.position(in.position() + values.length * Integer.BYTES);
+				}
+			}
+			if (in.hasRemaining()) {
+				int sections = in.getInt();
+				for (int i = 0; i < sections; i++) {
+					Granularity granularity = Granularity.valueOf(readString(in));
+					long[] words = new long[in.getInt()];
+					in.asLongBuffer().get(words);
+					in.position(in.position() + words.length * Long.BYTES);
+					BitSet cells = BitSet.valueOf(words);
+					for (int cell = cells.nextSetBit(0); cell >= 0; cell = cells.nextSetBit(cell + 1))
+						results.setTimedOut(granularity, cell / size, cell % size, true);
+				}
+			}
+			return results;
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt result matrix file: " + file, e);
+		}
+	}
+
+	/**
+	 * Reads a matrix back from a results log written by {@link HenshinConflictDetection#logResults} or
+	 * {@link HenshinDependencyDetection#logResults}: one block per granularity, headed by "Computing
+	 * binary granularity:", "Computing minimal ... reasons:" or "Computing initial ... reasons:", and
+	 * closed by {@link #LOG_COMPLETE}. Logs to which several runs were appended, e.g. by the
+	 * {@link RuleFolderWatcher}, are read from their last complete run; text after it is still being
+	 * written and ignored.
+	 *
+	 * @param file The results log.
+	 * @param kind The kind of analysis that wrote the log.
+	 * @return The matrix, without times.
+	 * @throws IOException If the file cannot be read or holds no complete matrix, e.g. while it is
+	 *                     still being written.
+	 */
+	public static ResultMatrix readLog(Path file, AnalysisKind kind) throws IOException {
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		int end = lines.lastIndexOf(LOG_COMPLETE);
+		if (end < 0)
+			throw new IOException("Incomplete results log " + file);
+		int start = lines.subList(0, end).lastIndexOf(LOG_COMPLETE) + 1;
+		List<Granularity> granularities = new ArrayList<Granularity>();
+		List<String> ruleNames = new ArrayList<String>();
+		// [granularity][row] cells as logged
+		List<List<String[]>> blocks = new ArrayList<List<String[]>>();
+		for (String line : lines.subList(start, end)) {
+			if (line.startsWith("Computing ")) {
+				granularities.add(line.contains("binary") ? Granularity.binary
+						: line.contains("minimal") ? Granularity.coarse : Granularity.fine);
+				blocks.add(new ArrayList<String[]>());
+				continue;
+			}
+			int separator = line.lastIndexOf(" | ");
+			if (separator < 0 || blocks.isEmpty())
+				continue;
+			List<String[]> block = blocks.get(blocks.size() - 1);
+			if (blocks.size() == 1)
+				ruleNames.add(line.substring(separator + 3).trim());
+			else if (block.size() >= ruleNames.size()
+					|| !ruleNames.get(block.size()).equals(line.substring(separator + 3).trim()))
+				throw new IOException("Unexpected row in results log " + file + ": " + line);
+			block.add(line.substring(0, separator).trim().split("\\s+"));
+		}
+		if (blocks.isEmpty() || ruleNames.isEmpty())
+			throw new IOException("No results in " + file);
+
+		ResultMatrix results = new ResultMatrix(kind, ruleNames, granularities);
+		for (int g = 0; g < granularities.size(); g++) {
+			List<String[]> block = blocks.get(g);
+			if (block.size() != ruleNames.size())
+				throw new IOException("Incomplete results log " + file);
+			for (int i = 0; i < block.size(); i++) {
+				String[] cells = block.get(i);
+				if (cells.length != ruleNames.size())
+					throw new IOException("Incomplete results log " + file);
+				for (int j = 0; j < cells.length; j++) {
+					if (cells[j].equals("T")) {
+						results.setTimedOut(granularities.get(g), i, j, true);
+						continue;
+					}
+					try {
+						results.set(granularities.get(g), i, j, Integer.parseInt(cells[j]));
+					} catch (NumberFormatException e) {
+						throw new IOException("Unexpected cell in results log " + file + ": " + cells[j], e);
+					}
+				}
+			}
+		}
+		return results;
+	}
+
+	private static void writeBinary(ResultMatrix results, Path file) throws IOException {
+		byte[] kind = results.getKind().getLabel().getBytes(StandardCharsets.UTF_8);
+		List<byte[]> names = new ArrayList<byte[]>();
+		for (String name : results.getRuleNames())
+			names.add(name.getBytes(StandardCharsets.UTF_8));
+		List<Granularity> granularities = results.getGranularities();
+		List<long[]> words = new ArrayList<long[]>();
+		List<Granularity> timedOut = new ArrayList<Granularity>();
+		List<long[]> timeouts = new ArrayList<long[]>();
+		int length = 4 * Integer.BYTES + kind.length;
+		for (byte[] name : names)
+			length += Integer.BYTES + name.length;
+		for (Granularity granularity : granularities) {
+			length += Integer.BYTES + granularity.name().length() + 1 + Integer.BYTES;
+			long[] bits = granularity == Granularity.binary ? results.getBits(granularity).toLongArray() : null;
+			words.add(bits);
+			length += bits != null ? bits.length * Long.BYTES : results.getCounts(granularity).length * Integer.BYTES;
+			BitSet cells = results.getTimedOut(granularity);
+			if (cells != null) {
+				timedOut.add(granularity);
+				timeouts.add(cells.toLongArray());
+				length += 2 * Integer.BYTES + granularity.name().length() + timeouts.get(timeouts.size() - 1).length * Long.BYTES;
+			}
+		}
+		if (!timedOut.isEmpty())
+			length += Integer.BYTES;
+
+		ByteBuffer out = ByteBuffer.allocate(length);
+		out.putInt(MAGIC);
+		out.putInt(kind.length).put(kind);
+		out.putInt(results.size());
+		for (byte[] name : names)
+			out.putInt(name.length).put(name);
+		out.putInt(granularities.size());
+		for (int g = 0; g < granularities.size(); g++) {
+			byte[] name = granularities.get(g).name().getBytes(StandardCharsets.UTF_8);
+			out.putInt(name.length).put(name);
+			long[] bits = words.get(g);
+			if (bits != null) {
+				out.put(BITS).putInt(bits.length);
+				out.asLongBuffer().put(bits);
+				out.position(out.position() + bits.length * Long.BYTES);
+			} else {
+				int[] values = results.getCounts(granularities.get(g));
+				out.put(COUNTS).putInt(values.length);
+				out.asIntBuffer().put(values);
+				out.position(out.position() + values.length * Integer.BYTES);
+			}
+		}
+		if (!timedOut.isEmpty()) {
+			out.putInt(timedOut.size());
+			for (int g = 0; g < timedOut.size(); g++) {
+				byte[] name = timedOut.get(g).name().getBytes(StandardCharsets.UTF_8);
+				out.putInt(name.length).put(name);
+				out.putInt(timeouts.get(g).length);
+				out.asLongBuffer().put(timeouts.get(g));
+				out.position(out.position() + timeouts.get(g).length * Long.BYTES);
+			}
+		}
+		Files.write(file, out.array());
+	}
+
+	private static void writeCsv(ResultMatrix results, Writer out) throws IOException {
+		out.write("granularity,rule");
+		for (String name : results.getRuleNames())
+			out.write("," + csv(name));
+		out.write("\n");
+		for (Granularity granularity : results.getGranularities()) {
+			for (int i = 0; i < results.size(); i++) {
+				StringBuilder line = new StringBuilder(granularity.name()).append(',')
+						.append(csv(results.getRuleNames().get(i)));
+				for (int j = 0; j < results.size(); j++)
+					line.append(',').append(results.formatValue(granularity, i, j));
+				out.write(line.append('\n').toString());
+			}
+		}
+	}
+
+	static void writeJson(ResultMatrix results, Writer out) throws IOException {
+		out.write("{\"kind\":" + json(results.getKind().getLabel()) + ",\"rules\":[");
+		for (int i = 0; i < results.size(); i++)
+			out.write((i > 0 ? "," : "") + json(results.getRuleNames().get(i)));
+		out.write("],\"results\":{");
+		boolean first = true;
+		for (Granularity granularity : results.getGranularities()) {
+			out.write((first ? "" : ",") + json(granularity.name()) + ":[");
+			first = false;
+			for (int i = 0; i < results.size(); i++) {
+				StringBuilder row = new StringBuilder(i > 0 ? ",[" : "[");
+				for (int j = 0; j < results.size(); j++)
+					row.append(j > 0 ? "," : "").append(results.isTimedOut(granularity, i, j) ? "null"
+							: String.valueOf(results.get(granularity, i, j)));
+				out.write(row.append(']').toString());
+			}
+			out.write("]");
+		}
+		out.write("}}\n");
+	}
+
+	/**
+	 * Quotes a string for CSV if it contains a separator, quote or line break.
+	 */
+	static String csv(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+			return value;
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * Quotes and escapes a string as JSON string literal.
+	 */
+	static String json(String value) {
+		StringBuilder out = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					out.append(String.format("\\u%04x", (int) c));
+				else
+					out.append(c);
+			}
+		}
+		return out.append('"').toString();
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void skipValues(ByteBuffer in) {
+		byte type = in.get();
+		int length = in.getInt();
+		in.position(in.position() + length * (type == BITS ? Long.BYTES : Integer.BYTES));
+	}
+
+}
@@ -0,0 +1,418 @@
+package Henshin;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers queries on the latest conflict and dependency results over HTTP on the loopback interface,
+ * so that tools do not need to parse the logs themselves. For each kind of analysis the newest result
+ * file of the log directory is loaded: the binary export in "logs/export/&lt;detection&gt;" if the run
+ * was exported, otherwise the results log in "logs/results/&lt;detection&gt;", from its last run
+ * closed by {@link ResultMatrixIO#LOG_COMPLETE}. Shard files are skipped, since they only hold part
+ * of the pairs; their merged results are logged by the {@link ShardMerger}. Both directories are
+ * watched, and a newer or grown file replaces the loaded results as soon as it can be read completely;
+ * queries are answered from the previous results until then.
+ *
+ * All answers are JSON. Rules are given by name; if several modules contain rules of the same name,
+ * the first one is used.
+ * <ul>
+ * <li>{@code GET /status} lists the loaded files.</li>
+ * <li>{@code GET /<kind>/rules} lists the rules of a kind, e.g. {@code /conflict/rules}.</li>
+ * <li>{@code GET /<kind>/row?rule=<name>} lists the cells of the rule as first rule with a result,
+ * e.g. everything {@code deleteManager} conflicts with.</li>
+ * <li>{@code GET /<kind>/column?rule=<name>} lists the cells of the rule as second rule with a
+ * result.</li>
+ * <li>{@code GET /<kind>/cell?first=<name>&second=<name>} returns one cell with the value of each
+ * granularity; timed-out values are null.</li>
+ * <li>{@code GET /<kind>/reasons?first=<name>&second=<name>} returns the number of minimal (coarse)
+ * and initial (fine) reasons of a pair. The results hold the number of reasons only, not the
+ * reasons themselves.</li>
+ * </ul>
+ */
+public class ResultQueryService {
+
+	/**
+	 * The default port.
+	 */
+	public static final int DEFAULT_PORT = 8642;
+
+	// Result files are written in several steps; they are read once this long has passed without events.
+	private static final long QUIET_PERIOD_MILLIS = 500;
+
+	private static final Logger logger = Logger.getLogger(ResultQueryService.class.getName());
+
+	private static final Map<AnalysisKind, String> DETECTIONS = Map.of(
+			AnalysisKind.CONFLICT, HenshinConflictDetection.class.getSimpleName(),
+			AnalysisKind.DEPENDENCY, HenshinDependencyDetection.class.getSimpleName());
+
+	private final Path logDirectory;
+
+	// replaced as a whole on reload, so a query always sees the results of one file
+	private volatile Map<AnalysisKind, IndexedResults> loaded = Collections.emptyMap();
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	/**
+	 * @param logDirectory The log directory of the detections, usually "logs".
+	 */
+	public ResultQueryService(Path logDirectory) {
+		this.logDirectory = logDirectory;
+	}
+
+	/**
+	 * The results of one file, indexed by rule.
+	 */
+	static final class IndexedResults {
+
+		final Path file;
+
+		final long modified;
+
+		final long length;
+
+		final ResultMatrix matrix;
+
+		final Map<String, Integer> rules = new HashMap<String, Integer>();
+
+		// per rule, the columns of its row and the rows of its column with a result
+		final int[][] rows;
+
+		final int[][] columns;
+
+		IndexedResults(Path file, long modified, long length, ResultMatrix matrix) {
+			this.file = file;
+			this.modified = modified;
+			this.length = length;
+			this.matrix = matrix;
+			int size = matrix.size();
+			for (int i = size - 1; i >= 0; i--)
+				rules.put(matrix.getRuleNames().get(i), i);
+			rows = new int[size][];
+			columns = new int[size][];
+			for (int i = 0; i < size; i++) {
+				int row = i;
+				int column = i;
+				rows[i] = IntStream.range(0, size).filter(j -> hasResult(row, j)).toArray();
+				columns[i] = IntStream.range(0, size).filter(j -> hasResult(j, column)).toArray();
+			}
+		}
+
+		private boolean hasResult(int row, int column) {
+			for (Granularity granularity : matrix.getGranularities()) {
+				if (matrix.get(granularity, row, column) > 0 || matrix.isTimedOut(granularity, row, column))
+					return true;
+			}
+			return false;
+		}
+
+		int rule(String name) {
+			Integer index = rules.get(name);
+			if (index == null)
+				throw new NoSuchElementException("Unknown " + matrix.getKind().getLabel() + " rule " + name);
+			return index;
+		}
+	}
+
+	/**
+	 * Loads the newest result file of each kind of analysis, unless it is loaded already. Files that
+	 * cannot be read, e.g. logs still being written, are skipped and the previous results are kept.
+	 */
+	public synchronized void reload() {
+		Map<AnalysisKind, IndexedResults> results = new EnumMap<AnalysisKind, IndexedResults>(AnalysisKind.class);
+		results.putAll(loaded);
+		for (Map.Entry<AnalysisKind, String> detection : DETECTIONS.entrySet()) {
+			AnalysisKind kind = detection.getKey();
+			Path file = latest(detection.getValue());
+			if (file == null)
+				continue;
+			try {
+				long modified = Files.getLastModifiedTime(file).toMillis();
+				long length = Files.size(file);
+				IndexedResults current = results.get(kind);
+				if (current != null && current.file.equals(file) && current.modified == modified
+						&& current.length == length)
+					continue;
+				ResultMatrix matrix = file.toString().endsWith(".hrm") ? ResultMatrixIO.read(file)
+						: ResultMatrixIO.readLog(file, kind);
+				results.put(kind, new IndexedResults(file, modified, length, matrix));
+				System.out.println("Loaded " + matrix.size() + " " + kind.getLabel() + " rules from " + file);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not load " + file + ", keeping the previous results", e);
+			}
+		}
+		loaded = results;
+	}
+
+	// The newest result file of a detection; of a log and an export of the same run, the export.
+	private Path latest(String detection) {
+		List<Path> files = new ArrayList<Path>();
+		for (Path directory : directories(detection)) {
+			if (!Files.isDirectory(directory))
+				continue;
+			try (Stream<Path> list = Files.list(directory)) {
+				list.filter(file -> file.toString().endsWith(".hrm") || file.toString().endsWith(".log"))
+						.filter(file -> PairShard.ofFile(file) == null)
+						.forEach(files::add);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not list " + directory, e);
+			}
+		}
+		return files.stream()
+				.max(Comparator.comparing((Path file) -> stem(file))
+						.thenComparing(file -> file.toString().endsWith(".hrm")))
+				.orElse(null);
+	}
+
+	private static String stem(Path file) {
+		String name = file.getFileName().toString();
+		return name.substring(0, name.lastIndexOf('.'));
+	}
+
+	private List<Path> directories(String detection) {
+		return List.of(logDirectory.resolve("results").resolve(detection),
+				logDirectory.resolve("export").resolve(detection));
+	}
+
+	/**
+	 * Answers a query.
+	 *
+	 * @param path The path of the request, e.g. "/conflict/row".
+	 * @param parameters The decoded query parameters.
+	 * @return The answer as JSON.
+	 * @throws IllegalArgumentException If the query is malformed.
+	 * @throws NoSuchElementException If the kind, the results or a rule are unknown.
+	 */
+	public String query(String path, Map<String, String> parameters) {
+		String[] segments = path.replaceAll("^/+|/+$", "").split("/");
+		if (segments.length == 1 && segments[0].equals("status"))
+			return status();
+		if (segments.length != 2)
+			throw new NoSuchElementException("Unknown query " + path);
+		AnalysisKind kind;
+		try {
+			kind = AnalysisKind.fromLabel(segments[0]);
+		} catch (IllegalArgumentException e) {
+			throw new NoSuchElementException(e.getMessage());
+		}
+		IndexedResults results = loaded.get(kind);
+		if (results == null)
+			throw new NoSuchElementException("No " + kind.getLabel() + " results in " + logDirectory);
+		ResultMatrix matrix = results.matrix;
+
+		switch (segments[1]) {
+		case "rules":
+			return matrix.getRuleNames().stream().map(ResultMatrixIO::json).collect(Collectors.joining(",", "[", "]"));
+		case "row": {
+			int row = results.rule(parameter(parameters, "rule"));
+			StringBuilder out = new StringBuilder("[");
+			for (int column : results.rows[row])
+				out.append(out.length() > 1 ? "," : "").append(cell(matrix, row, column));
+			return out.append(']').toString();
+		}
+		case "column": {
+			int column = results.rule(parameter(parameters, "rule"));
+			StringBuilder out = new StringBuilder("[");
+			for (int row : results.columns[column])
+				out.append(out.length() > 1 ? "," : "").append(cell(matrix, row, column));
+			return out.append(']').toString();
+		}
+		case "cell":
+			return cell(matrix, results.rule(parameter(parameters, "first")),
+					results.rule(parameter(parameters, "second")));
+		case "reasons": {
+			int row = results.rule(parameter(parameters, "first"));
+			int column = results.rule(parameter(parameters, "second"));
+			return "{\"first\":" + ResultMatrixIO.json(matrix.getRuleNames().get(row))
+					+ ",\"second\":" + ResultMatrixIO.json(matrix.getRuleNames().get(column))
+					+ ",\"minimal\":" + value(matrix, Granularity.coarse, row, column)
+					+ ",\"initial\":" + value(matrix, Granularity.fine, row, column) + "}";
+		}
+		default:
+			throw new NoSuchElementException("Unknown query " + path);
+		}
+	}
+
+	private String status() {
+		StringBuilder out = new StringBuilder("{");
+		for (Map.Entry<AnalysisKind, IndexedResults> entry : loaded.entrySet()) {
+			ResultMatrix matrix = entry.getValue().matrix;
+			out.append(out.length() > 1 ? "," : "").append(ResultMatrixIO.json(entry.getKey().getLabel()))
+					.append(":{\"file\":").append(ResultMatrixIO.json(entry.getValue().file.toString()))
+					.append(",\"rules\":").append(matrix.size())
+					.append(",\"granularities\":")
+					.append(matrix.getGranularities().stream().map(g -> ResultMatrixIO.json(g.name()))
+							.collect(Collectors.joining(",", "[", "]")))
+					.append('}');
+		}
+		return out.append('}').toString();
+	}
+
+	private static String cell(ResultMatrix matrix, int row, int column) {
+		StringBuilder out = new StringBuilder("{\"first\":").append(ResultMatrixIO.json(matrix.getRuleNames().get(row)))
+				.append(",\"second\":").append(ResultMatrixIO.json(matrix.getRuleNames().get(column)));
+		for (Granularity granularity : matrix.getGranularities())
+			out.append(",\"").append(granularity.name()).append("\":").append(value(matrix, granularity, row, column));
+		return out.append('}').toString();
+	}
+
+	// The value of a cell as JSON; null if it timed out or the granularity was not computed.
+	private static String value(ResultMatrix matrix, Granularity granularity, int row, int column) {
+		if (!matrix.contains(granularity) || matrix.isTimedOut(granularity, row, column))
+			return "null";
+		return String.valueOf(matrix.get(granularity, row, column));
+	}
+
+	private static String parameter(Map<String, String> parameters, String name) {
+		String value = parameters.get(name);
+		if (value == null)
+			throw new IllegalArgumentException("Missing parameter " + name);
+		return value;
+	}
+
+	/**
+	 * Starts answering queries on the loopback interface. The results are loaded first.
+	 *
+	 * @param port The port, or 0 for any free port.
+	 * @return The port the service listens on.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public int start(int port) throws IOException {
+		reload();
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/", this::handle);
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		server.setExecutor(executor);
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops answering queries.
+	 */
+	public void stop() {
+		if (server != null)
+			server.stop(0);
+		if (executor != null)
+			executor.shutdown();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		int status = 200;
+		String body;
+		try {
+			if (!exchange.getRequestMethod().equals("GET"))
+				throw new IllegalArgumentException("Only GET is supported");
+			body = query(exchange.getRequestURI().getPath(), parameters(exchange.getRequestURI().getRawQuery()));
+		} catch (NoSuchElementException e) {
+			status = 404;
+			body = "{\"error\":" + ResultMatrixIO.json(e.getMessage()) + "}";
+		} catch (IllegalArgumentException e) {
+			status = 400;
+			body = "{\"error\":" + ResultMatrixIO.json(e.getMessage()) + "}";
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static Map<String, String> parameters(String query) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (query == null || query.isEmpty())
+			return parameters;
+		for (String parameter : query.split("&")) {
+			int separator = parameter.indexOf('=');
+			String name = separator < 0 ? parameter : parameter.substring(0, separator);
+			String value = separator < 0 ? "" : parameter.substring(separator + 1);
+			parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+		return parameters;
+	}
+
+	/**
+	 * Reloads the results whenever a result file is created or changes, until the thread is
+	 * interrupted.
+	 *
+	 * @throws IOException If the log directories cannot be watched.
+	 * @throws InterruptedException If the thread is interrupted while waiting for changes.
+	 */
+	public void watch() throws IOException, InterruptedException {
+		try (WatchService watchService = logDirectory.getFileSystem().newWatchService()) {
+			for (String detection : DETECTIONS.values()) {
+				for (Path directory : directories(detection)) {
+					Files.createDirectories(directory);
+					directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+				}
+			}
+			while (true) {
+				WatchKey key = watchService.take();
+				while (key != null) {
+					key.pollEvents();
+					key.reset();
+					key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				reload();
+			}
+		}
+	}
+
+	/**
+	 * Serves the results in "logs", or the log directory given by {@code --logs <dir>}, on port
+	 * {@value #DEFAULT_PORT} or the one given by {@code --port <n>}, and reloads them after every run.
+	 *
+	 * @param args the command-line arguments.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Path logDirectory = Paths.get("logs");
+		int port = DEFAULT_PORT;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--port"))
+				port = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--logs"))
+				logDirectory = Paths.get(args[++i]);
+		}
+		ResultQueryService service = new ResultQueryService(logDirectory);
+		port = service.start(port);
+		System.out.println("Answering queries on http://localhost:" + port + "/");
+		service.watch();
+	}
+
+}
@@ -0,0 +1,308 @@
+package Henshin;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.henshin.model.Attribute;
+import org.eclipse.emf.henshin.model.AttributeCondition;
+import org.eclipse.emf.henshin.model.Edge;
+import org.eclipse.emf.henshin.model.Graph;
+import org.eclipse.emf.henshin.model.Mapping;
+import org.eclipse.emf.henshin.model.NestedCondition;
+import org.eclipse.emf.henshin.model.Node;
+import org.eclipse.emf.henshin.model.Parameter;
+import org.eclipse.emf.henshin.model.Rule;
+
+/**
+ * Computes structural fingerprints of prepared rules. The fingerprint covers everything the
+ * critical-pair analysis looks at: the LHS, RHS and nested condition graphs with their node and
+ * edge types (including the supertypes of the node types), attributes, mappings, attribute
+ * conditions and parameters, and the names of the nodes, which identify the spans the analysis
+ * compares and can therefore change the number of reasons reported. The names of the rule and its
+ * parameters are not part of the fingerprint, so renaming a rule keeps it stable, while any
+ * structural change produces a different one.
+ *
+ * The {@link #canonical(Rule) canonical fingerprint} is in addition independent of the order of the
+ * nodes, edges, parameters and attributes in the rule, so that isomorphic rules with the same node
+ * names get the same fingerprint.
+ */
+public class RuleFingerprint {
+
+	private RuleFingerprint() {
+	}
+
+	/**
+	 * Computes the structural fingerprint of a rule.
+	 *
+	 * @param rule The prepared rule.
+	 * @return The hex encoded SHA-256 hash of the rule structure.
+	 */
+	public static String of(Rule rule) {
+		return sha256(describe(rule));
+	}
+
+	/**
+	 * Computes the hex encoded SHA-256 hash of a string.
+	 *
+	 * @param text The text to hash.
+	 * @return The hash as lower-case hex string.
+	 */
+	public static String sha256(String text) {
+		return sha256(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Computes the hex encoded SHA-256 hash of a byte array.
+	 *
+	 * @param bytes The bytes to hash.
+	 * @return The hash as lower-case hex string.
+	 */
+	public static String sha256(byte[] bytes) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(bytes);
+			StringBuilder hex = new StringBuilder();
+			for (byte b : hash)
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * Creates the textual description of a rule the fingerprint is computed from.
+	 */
+	static String describe(Rule rule) {
+		StringBuilder out = new StringBuilder();
+		out.append("injective=").append(rule.isInjectiveMatching())
+				.append(" dangling=").append(rule.isCheckDangling()).append('\n');
+		for (Parameter parameter : rule.getParameters())
+			out.append("param ").append(parameter.getKind()).append(' ')
+					.append(parameter.getType() == null ? "-" : EcoreUtil.getURI(parameter.getType())).append('\n');
+		for (AttributeCondition condition : rule.getAttributeConditions())
+			out.append("condition ").append(condition.getConditionText()).append('\n');
+
+		Map<Node, Integer> ids = new HashMap<Node, Integer>();
+		describeGraph("lhs", rule.getLhs(), ids, out);
+		describeGraph("rhs", rule.getRhs(), ids, out);
+		describeMappings(rule.getMappings(), ids, out);
+		return out.toString();
+	}
+
+	private static void describeGraph(String label, Graph graph, Map<Node, Integer> ids, StringBuilder out) {
+		out.append(label).append(" {\n");
+		for (Node node : graph.getNodes()) {
+			ids.put(node, ids.size());
+			out.append("node ").append(ids.get(node)).append(' ').append(node.getName()).append(' ')
+					.append(describeType(node.getType()));
+			for (Attribute attribute : node.getAttributes())
+				out.append(" @").append(attribute.getType() == null ? "-" : attribute.getType().getName())
+						.append('=').append(attribute.getValue());
+			out.append('\n');
+		}
+		for (Edge edge : graph.getEdges()) {
+			out.append("edge ").append(ids.get(edge.getSource())).append("->").append(ids.get(edge.getTarget()))
+					.append(' ').append(edge.getType() == null ? "-" : EcoreUtil.getURI(edge.getType()));
+			if (edge.getIndex() != null)
+				out.append(" [").append(edge.getIndex()).append(']');
+			out.append('\n');
+		}
+		if (graph.getFormula() != null)
+			describeFormula(graph.getFormula(), ids, out);
+		out.append("}\n");
+	}
+
+	private static void describeFormula(EObject formula, Map<Node, Integer> ids, StringBuilder out) {
+		if (formula instanceof NestedCondition) {
+			NestedCondition condition = (NestedCondition) formula;
+			describeGraph("condition", condition.getConclusion(), ids, out);
+			describeMappings(condition.getMappings(), ids, out);
+			return;
+		}
+		out.append(formula.eClass().getName()).append(" (\n");
+		for (EObject operand : formula.eContents())
+			describeFormula(operand, ids, out);
+		out.append(")\n");
+	}
+
+	private static void describeMappings(Iterable<Mapping> mappings, Map<Node, Integer> ids, StringBuilder out) {
+		for (Mapping mapping : mappings)
+			out.append("map ").append(ids.get(mapping.getOrigin())).append("->").append(ids.get(mapping.getImage()))
+					.append('\n');
+	}
+
+	private static String describeType(EClass type) {
+		if (type == null)
+			return "-";
+		StringBuilder out = new StringBuilder(EcoreUtil.getURI(type).toString());
+		for (EClass superType : type.getEAllSuperTypes())
+			out.append(" <").append(EcoreUtil.getURI(superType));
+		return out.toString();
+	}
+
+	/**
+	 * Computes the canonical fingerprint of a rule. The nodes of all graphs of the rule are ordered by
+	 * colour refinement over their graph, name, type, attributes, edges and mappings; remaining ties are
+	 * broken by individualising one node at a time. Equal canonical fingerprints therefore imply
+	 * isomorphic rules, while isomorphic rules may in rare cases get different fingerprints, which only
+	 * costs a missed deduplication.
+	 *
+	 * @param rule The prepared rule.
+	 * @return The hex encoded SHA-256 hash of the canonical rule structure.
+	 */
+	public static String canonical(Rule rule) {
+		return sha256(describeCanonical(rule));
+	}
+
+	/**
+	 * Creates the canonical description of a rule the canonical fingerprint is computed from.
+	 */
+	static String describeCanonical(Rule rule) {
+		StringBuilder out = new StringBuilder();
+		out.append("injective=").append(rule.isInjectiveMatching())
+				.append(" dangling=").append(rule.isCheckDangling()).append('\n');
+		List<String> lines = new ArrayList<String>();
+		for (Parameter parameter : rule.getParameters())
+			lines.add("param " + parameter.getName() + ' ' + parameter.getKind() + ' '
+					+ (parameter.getType() == null ? "-" : EcoreUtil.getURI(parameter.getType())));
+		for (AttributeCondition condition : rule.getAttributeConditions())
+			lines.add("condition " + condition.getConditionText());
+		Collections.sort(lines);
+		for (String line : lines)
+			out.append(line).append('\n');
+
+		// Initial colours: the graph of the node, its name, its type and its attributes.
+		// Node names are kept, since the analysis identifies spans by them, and parameter
+		// names, since attribute values and conditions refer to them.
+		Map<Node, String> labels = new LinkedHashMap<Node, String>();
+		List<Mapping> mappings = new ArrayList<Mapping>(rule.getMappings());
+		StringBuilder skeleton = new StringBuilder();
+		collectNodes("lhs", rule.getLhs(), labels, mappings, skeleton);
+		collectNodes("rhs", rule.getRhs(), labels, mappings, skeleton);
+		out.append(skeleton);
+		List<Node> nodes = new ArrayList<Node>(labels.keySet());
+		Map<Node, Integer> colours = compress(labels);
+		colours = refine(nodes, colours, mappings);
+		while (true) {
+			Node tied = firstTie(nodes, colours);
+			if (tied == null)
+				break;
+			Map<Node, String> individualised = new LinkedHashMap<Node, String>();
+			for (Node node : nodes)
+				individualised.put(node, String.format("%08d%s", colours.get(node), node == tied ? "" : "+"));
+			colours = refine(nodes, compress(individualised), mappings);
+		}
+
+		List<String> elements = new ArrayList<String>();
+		for (Node node : nodes) {
+			int id = colours.get(node);
+			elements.add(String.format("node %08d %s", id, labels.get(node)));
+			for (Edge edge : node.getOutgoing())
+				elements.add(String.format("edge %08d->%08d %s%s", id, colours.get(edge.getTarget()),
+						edge.getType() == null ? "-" : EcoreUtil.getURI(edge.getType()),
+						edge.getIndex() == null ? "" : " [" + edge.getIndex() + "]"));
+		}
+		for (Mapping mapping : mappings)
+			elements.add(String.format("map %08d->%08d", colours.get(mapping.getOrigin()), colours.get(mapping.getImage())));
+		Collections.sort(elements);
+		for (String element : elements)
+			out.append(element).append('\n');
+		return out.toString();
+	}
+
+	// Labels the nodes of a graph and its nested conditions and records the formula structure.
+	private static void collectNodes(String role, Graph graph, Map<Node, String> labels, List<Mapping> mappings,
+			StringBuilder skeleton) {
+		skeleton.append(role).append('\n');
+		for (Node node : graph.getNodes()) {
+			TreeSet<String> attributes = new TreeSet<String>();
+			for (Attribute attribute : node.getAttributes())
+				attributes.add("@" + (attribute.getType() == null ? "-" : attribute.getType().getName()) + "="
+						+ attribute.getValue());
+			labels.put(node, role + " " + node.getName() + " " + describeType(node.getType()) + " " + attributes);
+		}
+		if (graph.getFormula() != null)
+			collectFormula(role, graph.getFormula(), labels, mappings, skeleton);
+	}
+
+	private static void collectFormula(String role, EObject formula, Map<Node, String> labels, List<Mapping> mappings,
+			StringBuilder skeleton) {
+		if (formula instanceof NestedCondition) {
+			NestedCondition condition = (NestedCondition) formula;
+			mappings.addAll(condition.getMappings());
+			collectNodes(role, condition.getConclusion(), labels, mappings, skeleton);
+			return;
+		}
+		for (int i = 0; i < formula.eContents().size(); i++)
+			collectFormula(role + "/" + formula.eClass().getName() + i, formula.eContents().get(i), labels, mappings,
+					skeleton);
+	}
+
+	// Refines the colours by the colours of the neighbours until the number of colours is stable.
+	private static Map<Node, Integer> refine(List<Node> nodes, Map<Node, Integer> colours, List<Mapping> mappings) {
+		Map<Node, List<String>> neighbours = new HashMap<Node, List<String>>();
+		int count = new TreeSet<Integer>(colours.values()).size();
+		while (true) {
+			for (Node node : nodes)
+				neighbours.put(node, new ArrayList<String>());
+			for (Node node : nodes) {
+				for (Edge edge : node.getOutgoing()) {
+					String type = edge.getType() == null ? "-" : edge.getType().getName();
+					neighbours.get(node).add(">" + type + ":" + colours.get(edge.getTarget()));
+					neighbours.get(edge.getTarget()).add("<" + type + ":" + colours.get(node));
+				}
+			}
+			for (Mapping mapping : mappings) {
+				neighbours.get(mapping.getOrigin()).add(">map:" + colours.get(mapping.getImage()));
+				neighbours.get(mapping.getImage()).add("<map:" + colours.get(mapping.getOrigin()));
+			}
+			Map<Node, String> signatures = new LinkedHashMap<Node, String>();
+			for (Node node : nodes) {
+				List<String> signature = neighbours.get(node);
+				Collections.sort(signature);
+				signatures.put(node, String.format("%08d", colours.get(node)) + signature);
+			}
+			Map<Node, Integer> refined = compress(signatures);
+			int refinedCount = new TreeSet<Integer>(refined.values()).size();
+			colours = refined;
+			if (refinedCount == count)
+				return colours;
+			count = refinedCount;
+		}
+	}
+
+	// Numbers the distinct labels in their sorted order.
+	private static Map<Node, Integer> compress(Map<Node, String> labels) {
+		List<String> distinct = new ArrayList<String>(new TreeSet<String>(labels.values()));
+		Map<Node, Integer> colours = new LinkedHashMap<Node, Integer>();
+		for (Map.Entry<Node, String> entry : labels.entrySet())
+			colours.put(entry.getKey(), Collections.binarySearch(distinct, entry.getValue()));
+		return colours;
+	}
+
+	// Returns a node of the smallest colour shared by several nodes, or null if all colours are distinct.
+	private static Node firstTie(List<Node> nodes, Map<Node, Integer> colours) {
+		Map<Integer, Integer> sizes = new HashMap<Integer, Integer>();
+		for (Node node : nodes)
+			sizes.merge(colours.get(node), 1, Integer::sum);
+		Node tied = null;
+		for (Node node : nodes) {
+			if (sizes.get(colours.get(node)) > 1 && (tied == null || colours.get(node) < colours.get(tied)))
+				tied = node;
+		}
+		return tied;
+	}
+
+}
@@ -0,0 +1,216 @@
+package Henshin;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.eclipse.emf.henshin.model.Rule;
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * Keeps the conflict and dependency matrices of a rule folder up to date while the rules are being
+ * edited. The folder is watched with a {@link WatchService}; after every change the rules are
+ * reloaded and compared with the previous version by their {@link RuleFingerprint}. Only the rows
+ * and columns of changed or added rules are analysed again, all other cells are taken over from
+ * the previous matrices. The fingerprints cover the types a rule uses and their supertypes, but not
+ * e.g. the containments, opposites or multiplicities of the references, so after any change to a
+ * metamodel of the folder all pairs are analysed again. The updated matrices are then logged by the
+ * detection classes as usual.
+ */
+public class RuleFolderWatcher {
+
+	// Editors usually produce several events per save; they are collected for this long.
+	private static final long QUIET_PERIOD_MILLIS = 500;
+
+	private final Path folder;
+
+	private final HenshinConflictDetection conflictDetection;
+
+	private final HenshinDependencyDetection dependencyDetection;
+
+	private final List<Granularity> granularities;
+
+	private List<String> ruleKeys = Collections.emptyList();
+
+	private List<String> fingerprints = Collections.emptyList();
+
+	private String metamodelKey;
+
+	private ResultMatrix conflicts;
+
+	private ResultMatrix dependencies;
+
+	/**
+	 * Creates a watcher for the given rule folder.
+	 *
+	 * @param folder The folder containing the Henshin modules.
+	 * @param granularities The granularities to compute.
+	 * @param conflictDetection The configured conflict detection, used for analysing and logging.
+	 * @param dependencyDetection The configured dependency detection, used for analysing and logging.
+	 */
+	public RuleFolderWatcher(Path folder, List<Granularity> granularities,
+			HenshinConflictDetection conflictDetection, HenshinDependencyDetection dependencyDetection) {
+		this.folder = folder;
+		this.granularities = granularities;
+		this.conflictDetection = conflictDetection;
+		this.dependencyDetection = dependencyDetection;
+	}
+
+	/**
+	 * Computes the initial matrices and then recomputes them after every change in the folder until
+	 * the thread is interrupted or the folder becomes inaccessible.
+	 *
+	 * @throws IOException If the folder cannot be watched.
+	 * @throws InterruptedException If the thread is interrupted while waiting for changes.
+	 */
+	public void watch() throws IOException, InterruptedException {
+		conflictDetection.init();
+		dependencyDetection.init();
+		update();
+		try (WatchService watchService = folder.getFileSystem().newWatchService()) {
+			register(watchService, folder);
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean changed = false;
+				while (key != null) {
+					changed |= handleEvents(watchService, key);
+					if (!key.reset() && key.watchable().equals(folder))
+						return;
+					key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				if (changed)
+					update();
+			}
+		}
+	}
+
+	/**
+	 * Reloads the rules and brings both matrices up to date.
+	 */
+	public void update() {
+		List<Rule> rules = new ArrayList<Rule>(conflictDetection.getPreparedRules(folder.toString()));
+
+		List<String> newKeys = new ArrayList<String>();
+		Map<String, Integer> occurrences = new HashMap<String, Integer>();
+		for (Rule rule : rules) {
+			int occurrence = occurrences.merge(rule.getName(), 1, Integer::sum);
+			newKeys.add(rule.getName() + "#" + occurrence);
+		}
+		List<String> newFingerprints = new ArrayList<String>();
+		rules.forEach(rule -> newFingerprints.add(RuleFingerprint.of(rule)));
+		String newMetamodelKey;
+		try {
+			newMetamodelKey = PreparedRuleCache.metamodelKey(folder);
+		} catch (IOException e) {
+			e.printStackTrace();
+			newMetamodelKey = null; // unknown, analyse everything
+		}
+		boolean metamodelsChanged = newMetamodelKey == null || !newMetamodelKey.equals(metamodelKey);
+
+		// previous[i] is the index of rule i in the previous matrices, or -1 if it changed
+		int[] previous = new int[rules.size()];
+		int changed = 0;
+		for (int i = 0; i < rules.size(); i++) {
+			int old = metamodelsChanged ? -1 : ruleKeys.indexOf(newKeys.get(i));
+			previous[i] = old >= 0 && fingerprints.get(old).equals(newFingerprints.get(i)) ? old : -1;
+			if (previous[i] < 0)
+				changed++;
+		}
+
+		conflicts = update(conflictDetection.getEngine(), conflicts, rules, previous);
+		dependencies = update(dependencyDetection.getEngine(), dependencies, rules, previous);
+		ruleKeys = newKeys;
+		fingerprints = newFingerprints;
+		metamodelKey = newMetamodelKey;
+
+		int recomputed = rules.size() * rules.size() - (rules.size() - changed) * (rules.size() - changed);
+		System.out.println(changed + " of " + rules.size() + " rules changed, recomputed " + recomputed
+				+ " of " + rules.size() * rules.size() + " pairs.");
+		conflictDetection.logResults(conflicts);
+		dependencyDetection.logResults(dependencies);
+	}
+
+	private ResultMatrix update(MultiGranularEngine engine, ResultMatrix old, List<Rule> rules, int[] previous) {
+		List<String> ruleNames = new ArrayList<String>();
+		rules.forEach(rule -> ruleNames.add(rule.getName()));
+		ResultMatrix results = new ResultMatrix(engine.getKind(), ruleNames, granularities);
+		if (old != null) {
+			for (int i = 0; i < rules.size(); i++) {
+				for (int j = 0; j < rules.size(); j++) {
+					if (previous[i] >= 0 && previous[j] >= 0)
+						results.copyCell(old, previous[i], previous[j], i, j);
+				}
+			}
+		}
+		boolean reuse = old != null;
+		engine.analyse(rules, results, (row, column) -> !reuse || previous[row] < 0 || previous[column] < 0);
+		return results;
+	}
+
+	// Registers the folder and, like HenshinRuleLoader, all subdirectories without a dot in their name.
+	private static void register(WatchService watchService, Path directory) throws IOException {
+		try (Stream<Path> directories = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) directories::iterator) {
+				if (Files.isDirectory(path) && (path.equals(directory) || !path.getFileName().toString().contains(".")))
+					path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+			}
+		}
+	}
+
+	private static boolean handleEvents(WatchService watchService, WatchKey key) throws IOException {
+		boolean relevant = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (!(event.context() instanceof Path)) {
+				relevant = true; // overflow, some events were lost
+				continue;
+			}
+			Path path = ((Path) key.watchable()).resolve((Path) event.context());
+			String name = path.getFileName().toString();
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(path) && !name.contains(".")) {
+				register(watchService, path);
+				relevant = true;
+			} else if (name.endsWith(".henshin") || name.endsWith(".ecore")) {
+				relevant = true;
+			}
+		}
+		return relevant;
+	}
+
+	/**
+	 * Watches the "bank" folder next to the working directory, or the folder given as first argument.
+	 * Accepts the analysis options of {@link HenshinAnalysisDriver}.
+	 *
+	 * @param args the command-line arguments.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String henshinFolderPath = new File(System.getProperty("user.dir")).getParent() + File.separator + "bank";
+		HenshinAnalysisDriver driver = new HenshinAnalysisDriver();
+		for (int i = 0; i < args.length; i++) {
+			int last = driver.parseOption(args, i);
+			if (last < 0)
+				henshinFolderPath = args[i];
+			else
+				i = last;
+		}
+		driver.applyMeasurement();
+		new RuleFolderWatcher(Paths.get(henshinFolderPath), HenshinConflictDetection.granularities,
+				driver.getConflictDetection(), driver.getDependencyDetection()).watch();
+	}
+
+}
@@ -0,0 +1,204 @@
+package Henshin;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.henshin.model.Attribute;
+import org.eclipse.emf.henshin.model.Edge;
+import org.eclipse.emf.henshin.model.Graph;
+import org.eclipse.emf.henshin.model.NestedCondition;
+import org.eclipse.emf.henshin.model.Node;
+import org.eclipse.emf.henshin.model.Rule;
+
+/**
+ * Summarises which node types (EClasses) and edge types (EReferences) a prepared rule deletes,
+ * creates, uses and forbids, and on which node types it changes attribute values. The footprint
+ * is a cheap over-approximation of the rule's effect: if the footprints of two rules do not
+ * interact, the critical-pair analysis of the pair cannot find a conflict or dependency.
+ */
+public class RuleFootprint {
+
+	private final Set<EClass> deletedNodes = new HashSet<EClass>();
+	private final Set<EClass> createdNodes = new HashSet<EClass>();
+	private final Set<EClass> usedNodes = new HashSet<EClass>();
+	private final Set<EClass> forbiddenNodes = new HashSet<EClass>();
+	private final Set<EClass> changedNodes = new HashSet<EClass>();
+	private final Set<EClass> createdEdgeEnds = new HashSet<EClass>();
+	private final Set<EClass> deletedEdgeEnds = new HashSet<EClass>();
+
+	private final Set<EReference> deletedEdges = new HashSet<EReference>();
+	private final Set<EReference> createdEdges = new HashSet<EReference>();
+	private final Set<EReference> usedEdges = new HashSet<EReference>();
+	private final Set<EReference> forbiddenEdges = new HashSet<EReference>();
+
+	// Set if an element has no type; such rules are never pruned.
+	private boolean untyped;
+
+	private RuleFootprint() {
+	}
+
+	/**
+	 * Computes the footprint of a prepared rule from its LHS, RHS and nested conditions. LHS elements
+	 * without an image in the RHS are deleted, RHS elements without an origin in the LHS are created.
+	 * Elements of NACs are forbidden, elements of PACs are used, and elements of other nested
+	 * conditions count as both.
+	 *
+	 * @param rule The prepared rule.
+	 * @return The footprint of the rule.
+	 */
+	public static RuleFootprint of(Rule rule) {
+		RuleFootprint footprint = new RuleFootprint();
+		Graph lhs = rule.getLhs();
+		Graph rhs = rule.getRhs();
+
+		for (Node node : lhs.getNodes()) {
+			footprint.addNode(footprint.usedNodes, node);
+			Node image = rule.getMappings().getImage(node, rhs);
+			if (image == null)
+				footprint.addNode(footprint.deletedNodes, node);
+			else if (!sameAttributes(node, image))
+				footprint.addNode(footprint.changedNodes, node);
+		}
+		for (Node node : rhs.getNodes()) {
+			if (rule.getMappings().getOrigin(node) == null)
+				footprint.addNode(footprint.createdNodes, node);
+		}
+		for (Edge edge : lhs.getEdges()) {
+			footprint.addEdge(footprint.usedEdges, edge);
+			if (rule.getMappings().getImage(edge, rhs) == null) {
+				footprint.addEdge(footprint.deletedEdges, edge);
+				footprint.addEdgeEnds(footprint.deletedEdgeEnds, edge);
+			}
+		}
+		for (Edge edge : rhs.getEdges()) {
+			if (rule.getMappings().getOrigin(edge) == null) {
+				footprint.addEdge(footprint.createdEdges, edge);
+				footprint.addEdgeEnds(footprint.createdEdgeEnds, edge);
+			}
+		}
+
+		for (Iterator<EObject> it = lhs.eAllContents(); it.hasNext();) {
+			EObject object = it.next();
+			if (object instanceof NestedCondition) {
+				NestedCondition condition = (NestedCondition) object;
+				Graph conclusion = condition.getConclusion();
+				if (conclusion == null)
+					continue;
+				boolean forbids = !condition.isPAC();
+				boolean uses = !condition.isNAC();
+				for (Node node : conclusion.getNodes()) {
+					if (forbids)
+						footprint.addNode(footprint.forbiddenNodes, node);
+					if (uses)
+						footprint.addNode(footprint.usedNodes, node);
+				}
+				for (Edge edge : conclusion.getEdges()) {
+					if (forbids)
+						footprint.addEdge(footprint.forbiddenEdges, edge);
+					if (uses)
+						footprint.addEdge(footprint.usedEdges, edge);
+				}
+			}
+		}
+		return footprint;
+	}
+
+	/**
+	 * Checks whether applying rule r1 may disable rule r2, i.e. whether r1 deletes or changes an
+	 * element r2 uses, creates an element r2 forbids, changes an element r2 forbids, or creates an
+	 * edge at a node type r2 deletes.
+	 *
+	 * @param r1 The footprint of the first rule.
+	 * @param r2 The footprint of the second rule.
+	 * @return False if the pair certainly has no conflict.
+	 */
+	public static boolean mayConflict(RuleFootprint r1, RuleFootprint r2) {
+		if (r1.untyped || r2.untyped)
+			return true;
+		return intersectNodes(r1.deletedNodes, r2.usedNodes)
+				|| intersectEdges(r1.deletedEdges, r2.usedEdges)
+				|| intersectNodes(r1.createdNodes, r2.forbiddenNodes)
+				|| intersectEdges(r1.createdEdges, r2.forbiddenEdges)
+				|| intersectNodes(r1.createdEdgeEnds, r2.deletedNodes)
+				|| intersectNodes(r1.changedNodes, r2.usedNodes)
+				|| intersectNodes(r1.changedNodes, r2.forbiddenNodes);
+	}
+
+	/**
+	 * Checks whether applying rule r1 may enable rule r2. This is the conflict check for the inverse
+	 * of r1, which is also how the dependency analysis itself proceeds: r1 creates or changes an
+	 * element r2 uses, deletes or changes an element r2 forbids, or deletes an edge at a node type
+	 * r2 deletes.
+	 *
+	 * @param r1 The footprint of the first rule.
+	 * @param r2 The footprint of the second rule.
+	 * @return False if the pair certainly has no dependency.
+	 */
+	public static boolean mayDepend(RuleFootprint r1, RuleFootprint r2) {
+		if (r1.untyped || r2.untyped)
+			return true;
+		return intersectNodes(r1.createdNodes, r2.usedNodes)
+				|| intersectEdges(r1.createdEdges, r2.usedEdges)
+				|| intersectNodes(r1.deletedNodes, r2.forbiddenNodes)
+				|| intersectEdges(r1.deletedEdges, r2.forbiddenEdges)
+				|| intersectNodes(r1.deletedEdgeEnds, r2.deletedNodes)
+				|| intersectNodes(r1.changedNodes, r2.usedNodes)
+				|| intersectNodes(r1.changedNodes, r2.forbiddenNodes);
+	}
+
+	private void addNode(Set<EClass> types, Node node) {
+		if (node.getType() == null)
+			untyped = true;
+		else
+			types.add(node.getType());
+	}
+
+	private void addEdge(Set<EReference> types, Edge edge) {
+		if (edge.getType() == null)
+			untyped = true;
+		else
+			types.add(edge.getType());
+	}
+
+	private void addEdgeEnds(Set<EClass> types, Edge edge) {
+		addNode(types, edge.getSource());
+		addNode(types, edge.getTarget());
+	}
+
+	private static boolean sameAttributes(Node lhsNode, Node rhsNode) {
+		if (lhsNode.getAttributes().size() != rhsNode.getAttributes().size())
+			return false;
+		for (Attribute attribute : lhsNode.getAttributes()) {
+			Attribute image = rhsNode.getAttribute(attribute.getType());
+			if (image == null || !Objects.equals(attribute.getValue(), image.getValue()))
+				return false;
+		}
+		return true;
+	}
+
+	// Node types match if one is a (reflexive) supertype of the other.
+	private static boolean intersectNodes(Set<EClass> first, Set<EClass> second) {
+		for (EClass a : first) {
+			for (EClass b : second) {
+				if (a == b || a.isSuperTypeOf(b) || b.isSuperTypeOf(a))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	// Edge types match if they are the same reference or opposites of each other.
+	private static boolean intersectEdges(Set<EReference> first, Set<EReference> second) {
+		for (EReference a : first) {
+			if (second.contains(a) || (a.getEOpposite() != null && second.contains(a.getEOpposite())))
+				return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,66 @@
+package Henshin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.emf.henshin.model.Rule;
+
+/**
+ * Precomputed {@link RuleFootprint}s of a list of prepared rules. The index answers, without running
+ * the critical-pair analysis, whether a rule pair can interact at all, and counts how many pairs it
+ * was able to prune.
+ */
+public class RuleFootprintIndex {
+
+	private final List<RuleFootprint> footprints = new ArrayList<RuleFootprint>();
+
+	private final AtomicInteger checked = new AtomicInteger();
+
+	private final AtomicInteger pruned = new AtomicInteger();
+
+	/**
+	 * Builds the footprints of the given rules.
+	 *
+	 * @param rules The prepared rules, in matrix order.
+	 */
+	public RuleFootprintIndex(List<Rule> rules) {
+		for (Rule rule : rules)
+			footprints.add(RuleFootprint.of(rule));
+	}
+
+	/**
+	 * Checks whether the rules at the given positions may interact in the given kind of analysis.
+	 *
+	 * @param kind The kind of analysis.
+	 * @param row The index of the first rule.
+	 * @param column The index of the second rule.
+	 * @return False if the pair can be answered with 0 without running the analysis.
+	 */
+	public boolean mayInteract(AnalysisKind kind, int row, int column) {
+		RuleFootprint r1 = footprints.get(row);
+		RuleFootprint r2 = footprints.get(column);
+		boolean interacts = kind == AnalysisKind.CONFLICT
+				? RuleFootprint.mayConflict(r1, r2)
+				: RuleFootprint.mayDepend(r1, r2);
+		checked.incrementAndGet();
+		if (!interacts)
+			pruned.incrementAndGet();
+		return interacts;
+	}
+
+	/**
+	 * @return The number of pairs checked so far.
+	 */
+	public int getCheckedPairs() {
+		return checked.get();
+	}
+
+	/**
+	 * @return The number of checked pairs that were pruned.
+	 */
+	public int getPrunedPairs() {
+		return pruned.get();
+	}
+
+}
@@ -0,0 +1,358 @@
+package Henshin;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * The binary conflict or dependency relation between rules as a directed graph, with the analyses
+ * needed to reason about rule sequences: the transitive closure, the strongly connected components
+ * and the sequences of up to k rules along the relation. For dependencies, an edge from rule i to rule
+ * j means that j depends on i, so a sequence along the edges is a sequence in which every rule is
+ * enabled by its predecessor.
+ *
+ * The adjacency is stored as one packed bit row per rule, so closure and products are computed a
+ * machine word at a time. The closure is computed with Warshall's algorithm in O(n^3 / 64) word
+ * operations and kept for the queries that need it.
+ */
+public class RuleRelationGraph {
+
+	private final AnalysisKind kind;
+
+	private final List<String> ruleNames;
+
+	// number of words per row
+	private final int words;
+
+	// row-major, bit j of row i is set for an edge from i to j
+	private final long[] rows;
+
+	private RuleRelationGraph closure;
+
+	/**
+	 * @param kind The analysis the relation was computed by.
+	 * @param ruleNames The rule names, in matrix order.
+	 * @param rows The packed rows, {@code (size + 63) / 64} words each.
+	 */
+	public RuleRelationGraph(AnalysisKind kind, List<String> ruleNames, long[] rows) {
+		this.kind = kind;
+		this.ruleNames = List.copyOf(ruleNames);
+		this.words = (ruleNames.size() + 63) >>> 6;
+		if (rows.length != ruleNames.size() * words)
+			throw new IllegalArgumentException("Expected " + ruleNames.size() * words + " words but got " + rows.length);
+		this.rows = rows;
+	}
+
+	/**
+	 * Creates the graph of the binary results of a matrix. If the matrix has no binary granularity,
+	 * the cells with a positive count in its first granularity are taken instead.
+	 */
+	public static RuleRelationGraph of(ResultMatrix results) {
+		int size = results.size();
+		int words = (size + 63) >>> 6;
+		long[] rows = new long[size * words];
+		Granularity granularity = results.contains(Granularity.binary) ? Granularity.binary
+				: results.getGranularities().get(0);
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				if (results.get(granularity, i, j) > 0)
+					rows[i * words + (j >>> 6)] |= 1L << j;
+			}
+		}
+		return new RuleRelationGraph(results.getKind(), results.getRuleNames(), rows);
+	}
+
+	public AnalysisKind getKind() {
+		return kind;
+	}
+
+	public List<String> getRuleNames() {
+		return ruleNames;
+	}
+
+	public int size() {
+		return ruleNames.size();
+	}
+
+	public boolean hasEdge(int from, int to) {
+		return (rows[from * words + (to >>> 6)] & 1L << to) != 0;
+	}
+
+	/**
+	 * @return The number of edges.
+	 */
+	public int edgeCount() {
+		int count = 0;
+		for (long word : rows)
+			count += Long.bitCount(word);
+		return count;
+	}
+
+	/**
+	 * @return The rules reached from a rule by one edge.
+	 */
+	public BitSet successors(int from) {
+		return BitSet.valueOf(Arrays.copyOfRange(rows, from * words, (from + 1) * words));
+	}
+
+	/**
+	 * @return The transitive closure, which has an edge from i to j if j is reached from i by a
+	 *         sequence of one or more edges.
+	 */
+	public synchronized RuleRelationGraph closure() {
+		if (closure == null) {
+			long[] reach = rows.clone();
+			int size = size();
+			for (int k = 0; k < size; k++) {
+				int word = k >>> 6;
+				long bit = 1L << k;
+				int via = k * words;
+				for (int i = 0; i < size; i++) {
+					int row = i * words;
+					if ((reach[row + word] & bit) == 0)
+						continue;
+					for (int w = 0; w < words; w++)
+						reach[row + w] |= reach[via + w];
+				}
+			}
+			closure = new RuleRelationGraph(kind, ruleNames, reach);
+			closure.closure = closure;
+		}
+		return closure;
+	}
+
+	/**
+	 * @return True if {@code to} is reached from {@code from} by a sequence of one or more edges.
+	 */
+	public boolean reaches(int from, int to) {
+		return closure().hasEdge(from, to);
+	}
+
+	/**
+	 * Computes the boolean product of the adjacency of two graphs over the same rules: the product has
+	 * an edge from i to j if this graph has an edge from i to some k and the other one from k to j.
+	 */
+	public RuleRelationGraph product(RuleRelationGraph other) {
+		if (other.size() != size())
+			throw new IllegalArgumentException("Expected " + size() + " rules but got " + other.size());
+		long[] product = new long[rows.length];
+		multiply(rows, other.rows, product);
+		return new RuleRelationGraph(kind, ruleNames, product);
+	}
+
+	// target[i] = OR of right[k] over the bits k of left[i]
+	private void multiply(long[] left, long[] right, long[] target) {
+		for (int i = 0; i < size(); i++) {
+			int row = i * words;
+			for (int w = 0; w < words; w++) {
+				for (long word = left[row + w]; word != 0; word &= word - 1) {
+					int via = ((w << 6) + Long.numberOfTrailingZeros(word)) * words;
+					for (int v = 0; v < words; v++)
+						target[row + v] |= right[via + v];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the pairs of rules connected by a sequence of at most {@code k} rules, i.e. by at most
+	 * {@code k - 1} edges. The computation stops early once no new pairs are found.
+	 *
+	 * @param k The maximum number of rules of a sequence, at least 2.
+	 * @return The graph with an edge from the first to the last rule of every such sequence.
+	 */
+	public RuleRelationGraph within(int k) {
+		if (k < 2)
+			throw new IllegalArgumentException("A sequence along an edge has at least 2 rules, but got " + k);
+		long[] reach = rows.clone();
+		long[] longer = new long[rows.length];
+		for (int length = 3; length <= k; length++) {
+			Arrays.fill(longer, 0);
+			multiply(reach, rows, longer);
+			boolean changed = false;
+			for (int w = 0; w < reach.length; w++) {
+				long merged = reach[w] | longer[w];
+				changed |= merged != reach[w];
+				reach[w] = merged;
+			}
+			if (!changed)
+				break;
+		}
+		return new RuleRelationGraph(kind, ruleNames, reach);
+	}
+
+	/**
+	 * Counts the sequences of up to {@code k} rules along the edges. Rules may repeat along cycles.
+	 * Counts exceeding {@link Long#MAX_VALUE} are capped.
+	 *
+	 * @param k The maximum number of rules of a sequence.
+	 * @return The number of sequences of {@code l} rules at index {@code l - 1}; every single rule is
+	 *         a sequence of 1.
+	 */
+	public long[] countSequences(int k) {
+		int size = size();
+		long[] counts = new long[k];
+		// sequences of the current length ending in each rule
+		long[] ending = new long[size];
+		Arrays.fill(ending, 1);
+		for (int length = 1; length <= k; length++) {
+			if (length > 1) {
+				long[] next = new long[size];
+				for (int i = 0; i < size; i++) {
+					if (ending[i] == 0)
+						continue;
+					for (int w = 0; w < words; w++) {
+						for (long word = rows[i * words + w]; word != 0; word &= word - 1) {
+							int j = (w << 6) + Long.numberOfTrailingZeros(word);
+							next[j] = add(next[j], ending[i]);
+						}
+					}
+				}
+				ending = next;
+			}
+			for (long count : ending)
+				counts[length - 1] = add(counts[length - 1], count);
+		}
+		return counts;
+	}
+
+	private static long add(long a, long b) {
+		long sum = a + b;
+		return sum < 0 ? Long.MAX_VALUE : sum;
+	}
+
+	/**
+	 * Lists the sequences of 2 to {@code k} rules along the edges, in lexicographic order of the rule
+	 * indices.
+	 *
+	 * @param k The maximum number of rules of a sequence.
+	 * @param limit The maximum number of sequences returned.
+	 * @return The sequences as lists of rule indices.
+	 */
+	public List<List<Integer>> sequences(int k, int limit) {
+		List<List<Integer>> sequences = new ArrayList<List<Integer>>();
+		List<Integer> prefix = new ArrayList<Integer>();
+		for (int i = 0; i < size() && sequences.size() < limit; i++) {
+			prefix.add(i);
+			extend(prefix, k, limit, sequences);
+			prefix.remove(prefix.size() - 1);
+		}
+		return sequences;
+	}
+
+	private void extend(List<Integer> prefix, int k, int limit, List<List<Integer>> sequences) {
+		if (prefix.size() == k)
+			return;
+		int last = prefix.get(prefix.size() - 1) * words;
+		for (int w = 0; w < words; w++) {
+			for (long word = rows[last + w]; word != 0; word &= word - 1) {
+				if (sequences.size() >= limit)
+					return;
+				prefix.add((w << 6) + Long.numberOfTrailingZeros(word));
+				sequences.add(new ArrayList<Integer>(prefix));
+				extend(prefix, k, limit, sequences);
+				prefix.remove(prefix.size() - 1);
+			}
+		}
+	}
+
+	/**
+	 * Computes the strongly connected components from the closure: two rules belong to the same
+	 * component if each reaches the other.
+	 *
+	 * @return The components as sorted rule indices, ordered by their first rule.
+	 */
+	public List<List<Integer>> components() {
+		long[] reach = closure().rows;
+		int size = size();
+		// transposed closure, bit i of row j is set if i reaches j
+		long[] reached = new long[rows.length];
+		for (int i = 0; i < size; i++) {
+			for (int w = 0; w < words; w++) {
+				for (long word = reach[i * words + w]; word != 0; word &= word - 1) {
+					int j = (w << 6) + Long.numberOfTrailingZeros(word);
+					reached[j * words + (i >>> 6)] |= 1L << i;
+				}
+			}
+		}
+		List<List<Integer>> components = new ArrayList<List<Integer>>();
+		BitSet assigned = new BitSet(size);
+		for (int i = 0; i < size; i++) {
+			if (assigned.get(i))
+				continue;
+			List<Integer> component = new ArrayList<Integer>();
+			component.add(i);
+			assigned.set(i);
+			for (int w = 0; w < words; w++) {
+				for (long word = reach[i * words + w] & reached[i * words + w]; word != 0; word &= word - 1) {
+					int j = (w << 6) + Long.numberOfTrailingZeros(word);
+					if (!assigned.get(j)) {
+						component.add(j);
+						assigned.set(j);
+					}
+				}
+			}
+			components.add(component);
+		}
+		return components;
+	}
+
+	private String names(List<Integer> rules, String separator) {
+		return rules.stream().map(ruleNames::get).collect(Collectors.joining(separator));
+	}
+
+	/**
+	 * Analyses a result matrix written in the binary format, e.g. by {@code --export binary} or a merge
+	 * of shards, and prints the size of the relation and its closure, the strongly connected
+	 * components of more than one rule and the number of sequences of up to k rules. Arguments:
+	 * the matrix file, {@code --k <n>} for the maximum sequence length, 3 by default, and
+	 * {@code --sequences <n>} to also list up to n of the sequences.
+	 *
+	 * @param args the command-line arguments.
+	 */
+	public static void main(String[] args) throws IOException {
+		Path file = null;
+		int k = 3;
+		int listed = 0;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--k"))
+				k = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--sequences"))
+				listed = Integer.parseInt(args[++i]);
+			else
+				file = Paths.get(args[i]);
+		}
+		if (file == null) {
+			System.out.println("Usage: RuleRelationGraph <matrix.hrm> [--k <n>] [--sequences <n>]");
+			return;
+		}
+
+		RuleRelationGraph graph = of(ResultMatrixIO.read(file));
+		long start = System.nanoTime();
+		RuleRelationGraph closure = graph.closure();
+		List<List<Integer>> components = graph.components();
+		long[] counts = graph.countSequences(k);
+		long finished = System.nanoTime();
+
+		System.out.println("The " + graph.getKind().getLabel() + " relation of " + graph.size() + " rules has "
+				+ graph.edgeCount() + " pairs, its transitive closure " + closure.edgeCount() + ".");
+		for (List<Integer> component : components) {
+			if (component.size() > 1 || graph.hasEdge(component.get(0), component.get(0)))
+				System.out.println("Strongly connected: " + graph.names(component, ", "));
+		}
+		for (int length = 1; length <= k; length++)
+			System.out.println("Sequences of " + length + " rules: " + counts[length - 1]);
+		for (List<Integer> sequence : graph.sequences(k, listed))
+			System.out.println(graph.names(sequence, " -> "));
+		System.out.println(String.format(Locale.ROOT, "Analysed in %.3f ms.", (finished - start) / 1e6));
+	}
+
+}
@@ -0,0 +1,133 @@
+package Henshin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.eclipse.emf.henshin.model.Rule;
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * Measures how the conflict and dependency analysis scale with the number of rules. For each rule
+ * count a rule set is generated with the {@link SyntheticRuleGenerator}, prepared and analysed by
+ * the {@link MultiGranularEngine} for both analysis kinds. Time and peak heap usage are reported per
+ * rule count, together with the growth exponent of the time relative to the previous rule count:
+ * the analysis of all pairs is expected to grow with exponent 2, larger exponents indicate a
+ * super-quadratic blowup and are flagged.
+ */
+public class ScalingBenchmark {
+
+	// Exponents above this are reported as super-quadratic; leaves room for measurement noise.
+	private static final double SUPER_QUADRATIC = 2.3;
+
+	private final SyntheticRuleGenerator generator;
+
+	private final List<Granularity> granularities;
+
+	private final int threads;
+
+	/**
+	 * Creates the benchmark.
+	 *
+	 * @param generator The configured generator; its rule count is overwritten for each run.
+	 * @param granularities The granularities to compute.
+	 * @param threads The number of analysis threads.
+	 */
+	public ScalingBenchmark(SyntheticRuleGenerator generator, List<Granularity> granularities, int threads) {
+		this.generator = generator;
+		this.granularities = granularities;
+		this.threads = threads;
+	}
+
+	/**
+	 * Runs the benchmark for the given rule counts and prints one line per rule count.
+	 *
+	 * @param ruleCounts The rule counts, in increasing order.
+	 */
+	public void run(List<Integer> ruleCounts) {
+		System.out.println(String.format(Locale.ROOT, "%8s %10s %14s %14s %12s %12s %10s",
+				"rules", "pairs", "conflict ms", "dependency ms", "us/pair", "peak MB", "exponent"));
+		int previousCount = 0;
+		double previousMillis = 0;
+		for (int ruleCount : ruleCounts) {
+			generator.setRuleCount(ruleCount);
+			List<Rule> rules = generator.generateRules();
+			HenshinConflictDetection.prepareRules(rules);
+
+			System.gc();
+			resetPeakUsage();
+			double conflictMillis = analyse(AnalysisKind.CONFLICT, rules);
+			double dependencyMillis = analyse(AnalysisKind.DEPENDENCY, rules);
+			double peak = peakUsage() / 1048576.0;
+
+			double millis = conflictMillis + dependencyMillis;
+			long pairs = (long) rules.size() * rules.size();
+			String exponent = "-";
+			if (previousCount > 0 && ruleCount > previousCount && previousMillis > 0) {
+				double growth = Math.log(millis / previousMillis) / Math.log((double) ruleCount / previousCount);
+				exponent = String.format(Locale.ROOT, "%.2f", growth) + (growth > SUPER_QUADRATIC ? " !" : "");
+			}
+			System.out.println(String.format(Locale.ROOT, "%8d %10d %14.1f %14.1f %12.1f %12.1f %10s",
+					rules.size(), 2 * pairs, conflictMillis, dependencyMillis, millis * 1000 / (2 * pairs), peak,
+					exponent));
+			previousCount = ruleCount;
+			previousMillis = millis;
+		}
+	}
+
+	private double analyse(AnalysisKind kind, List<Rule> rules) {
+		MultiGranularEngine engine = new MultiGranularEngine(kind);
+		engine.setThreads(threads);
+		long start = System.nanoTime();
+		engine.analyse(granularities, rules);
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	private static void resetPeakUsage() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	private static long peakUsage() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	/**
+	 * Runs the scaling benchmark. {@code --sizes <n1,n2,...>} sets the rule counts (default
+	 * 10,20,40,80) and {@code --threads <n>} the number of analysis threads (default all processors).
+	 * The generator options are described at {@link SyntheticRuleGenerator#parseOption}.
+	 *
+	 * @param args the command-line arguments.
+	 */
+	public static void main(String[] args) {
+		SyntheticRuleGenerator generator = new SyntheticRuleGenerator();
+		List<Integer> sizes = List.of(10, 20, 40, 80);
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--sizes")) {
+				sizes = new ArrayList<Integer>();
+				for (String size : args[++i].split(","))
+					sizes.add(Integer.parseInt(size.trim()));
+			} else if (args[i].equals("--threads")) {
+				threads = Integer.parseInt(args[++i]);
+			} else {
+				int last = SyntheticRuleGenerator.parseOption(generator, args, i);
+				if (last < 0)
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				i = last;
+			}
+		}
+		new ScalingBenchmark(generator, HenshinConflictDetection.granularities, threads).run(sizes);
+	}
+
+}
@@ -0,0 +1,153 @@
+package Henshin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.emf.henshin.preprocessing.Granularity;
+
+/**
+ * Combines the shard files written by runs with {@code --shard i/n} into complete result matrices.
+ * Every cell is computed by exactly one shard and is 0 in all others, so the matrices are merged by
+ * adding the counts and or-ing the binary bits. The merged matrices are written to the usual results
+ * logs of {@link HenshinConflictDetection} and {@link HenshinDependencyDetection}, and optionally
+ * exported with {@code --export <formats>}.
+ *
+ * The shard runs themselves write no logs, so the merged results log is the only one of a sharded
+ * computation. The shard files carry no times, so no time log is written for the merged matrices.
+ */
+public class ShardMerger {
+
+	private ShardMerger() {
+	}
+
+	/**
+	 * Reads and merges all shard files of a directory.
+	 *
+	 * @param directory The shard directory.
+	 * @return The merged matrix per kind of analysis found in the directory.
+	 * @throws IOException If a file cannot be read, or the shards are incomplete or do not match.
+	 */
+	public static Map<AnalysisKind, ResultMatrix> merge(Path directory) throws IOException {
+		Map<AnalysisKind, Map<Integer, ResultMatrix>> shards = new EnumMap<AnalysisKind, Map<Integer, ResultMatrix>>(
+				AnalysisKind.class);
+		Map<AnalysisKind, Integer> counts = new EnumMap<AnalysisKind, Integer>(AnalysisKind.class);
+		List<Path> files;
+		try (Stream<Path> list = Files.list(directory)) {
+			files = list.filter(file -> PairShard.ofFile(file) != null).sorted().collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			PairShard shard = PairShard.ofFile(file);
+			ResultMatrix matrix = ResultMatrixIO.read(file);
+			Integer count = counts.putIfAbsent(matrix.getKind(), shard.getCount());
+			if (count != null && count != shard.getCount())
+				throw new IOException("Shard " + file + " belongs to a split into " + shard.getCount()
+						+ " shards, but other " + matrix.getKind().getLabel() + " shards to one into " + count);
+			shards.computeIfAbsent(matrix.getKind(), kind -> new TreeMap<Integer, ResultMatrix>())
+					.put(shard.getIndex(), matrix);
+		}
+
+		Map<AnalysisKind, ResultMatrix> merged = new EnumMap<AnalysisKind, ResultMatrix>(AnalysisKind.class);
+		for (Map.Entry<AnalysisKind, Map<Integer, ResultMatrix>> entry : shards.entrySet()) {
+			int count = counts.get(entry.getKey());
+			List<Integer> missing = new ArrayList<Integer>();
+			for (int i = 1; i <= count; i++) {
+				if (!entry.getValue().containsKey(i))
+					missing.add(i);
+			}
+			if (!missing.isEmpty())
+				throw new IOException("Missing " + entry.getKey().getLabel() + " shards " + missing + " of " + count
+						+ " in " + directory);
+			merged.put(entry.getKey(), merge(new ArrayList<ResultMatrix>(entry.getValue().values())));
+		}
+		return merged;
+	}
+
+	/**
+	 * Merges the matrices of all shards of one analysis.
+	 *
+	 * @param shards The matrices, all of the same kind, rules and granularities.
+	 * @return A new matrix holding the cells of all shards.
+	 * @throws IOException If the matrices do not match.
+	 */
+	public static ResultMatrix merge(List<ResultMatrix> shards) throws IOException {
+		ResultMatrix first = shards.get(0);
+		ResultMatrix merged = new ResultMatrix(first.getKind(), first.getRuleNames(), first.getGranularities());
+		for (ResultMatrix shard : shards) {
+			if (shard.getKind() != first.getKind() || !shard.getRuleNames().equals(first.getRuleNames())
+					|| !shard.getGranularities().equals(first.getGranularities()))
+				throw new IOException("Shards of different rule sets or granularities cannot be merged");
+			for (Granularity granularity : merged.getGranularities()) {
+				if (granularity == Granularity.binary) {
+					BitSet bits = merged.getBits(granularity);
+					bits.or(shard.getBits(granularity));
+				} else {
+					int[] values = merged.getCounts(granularity);
+					int[] other = shard.getCounts(granularity);
+					for (int i = 0; i < values.length; i++)
+						values[i] += other[i];
+				}
+				BitSet timedOut = shard.getTimedOut(granularity);
+				if (timedOut == null)
+					continue;
+				for (int cell = timedOut.nextSetBit(0); cell >= 0; cell = timedOut.nextSetBit(cell + 1))
+					merged.setTimedOut(granularity, cell / merged.size(), cell % merged.size(), true);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Merges the shards in the directory given as argument, "shards" by default, and logs the merged
+	 * matrices. {@code --export <formats>} additionally exports them to "logs/export".
+	 *
+	 * @param args the command-line arguments.
+	 */
+	public static void main(String[] args) throws IOException {
+		Path directory = Paths.get("shards");
+		List<ResultMatrixIO.Format> formats = Collections.emptyList();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--export"))
+				formats = ResultMatrixIO.parseFormats(args[++i]);
+			else
+				directory = Paths.get(args[i]);
+		}
+
+		Map<AnalysisKind, ResultMatrix> merged = merge(directory);
+		if (merged.isEmpty()) {
+			System.out.println("No shard files found in " + directory);
+			return;
+		}
+		ResultMatrix conflicts = merged.get(AnalysisKind.CONFLICT);
+		if (conflicts != null) {
+			HenshinConflictDetection detection = new HenshinConflictDetection();
+			detection.setTimeLogs(false);
+			detection.init();
+			detection.setExportFormats(formats);
+			detection.logResults(conflicts);
+			detection.flushLogs();
+		}
+		ResultMatrix dependencies = merged.get(AnalysisKind.DEPENDENCY);
+		if (dependencies != null) {
+			HenshinDependencyDetection detection = new HenshinDependencyDetection();
+			detection.setTimeLogs(false);
+			detection.init();
+			detection.setExportFormats(formats);
+			detection.logResults(dependencies);
+			detection.flushLogs();
+		}
+		for (ResultMatrix matrix : merged.values())
+			System.out.println("Merged " + matrix.getKind().getLabel() + " shards of " + matrix.size() + " rules.");
+	}
+
+}
@@ -0,0 +1,314 @@
+package Henshin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EcoreFactory;
+import org.eclipse.emf.henshin.model.Graph;
+import org.eclipse.emf.henshin.model.HenshinFactory;
+import org.eclipse.emf.henshin.model.Module;
+import org.eclipse.emf.henshin.model.NestedCondition;
+import org.eclipse.emf.henshin.model.Node;
+import org.eclipse.emf.henshin.model.Rule;
+import org.eclipse.emf.henshin.model.resource.HenshinResourceSet;
+
+/**
+ * Generates synthetic Henshin modules of configurable size for stress tests and scaling benchmarks.
+ *
+ * The generated metamodel consists of a number of classes, each with a few references to other
+ * classes. Every rule matches a connected LHS pattern of the configured size. A fraction of the LHS
+ * nodes is deleted, the remaining nodes are preserved, and new nodes are created until the RHS has
+ * the configured size. Each rule additionally gets the configured number of NACs, each forbidding
+ * one extra node attached to an LHS node. All edges follow the references of the metamodel, so the
+ * rules are valid and can be analysed like hand-written ones.
+ *
+ * Generation is deterministic for a given seed.
+ */
+public class SyntheticRuleGenerator {
+
+	private static final int REFERENCES_PER_CLASS = 3;
+
+	private int ruleCount = 10;
+
+	private int lhsSize = 3;
+
+	private int rhsSize = 3;
+
+	private int nacCount = 0;
+
+	private double deleteRatio = 0.3;
+
+	private int metamodelSize = 10;
+
+	private long seed = 42;
+
+	/**
+	 * @param ruleCount The number of rules to generate, at least 1.
+	 */
+	public void setRuleCount(int ruleCount) {
+		if (ruleCount < 1)
+			throw new IllegalArgumentException("Number of rules must be at least 1: " + ruleCount);
+		this.ruleCount = ruleCount;
+	}
+
+	/**
+	 * @param lhsSize The number of LHS nodes per rule, at least 1.
+	 */
+	public void setLhsSize(int lhsSize) {
+		if (lhsSize < 1)
+			throw new IllegalArgumentException("LHS size must be at least 1: " + lhsSize);
+		this.lhsSize = lhsSize;
+	}
+
+	/**
+	 * @param rhsSize The number of RHS nodes per rule. If fewer nodes are preserved, the difference is
+	 *                created; if more nodes are preserved, the RHS consists of the preserved nodes only.
+	 */
+	public void setRhsSize(int rhsSize) {
+		if (rhsSize < 0)
+			throw new IllegalArgumentException("RHS size must not be negative: " + rhsSize);
+		this.rhsSize = rhsSize;
+	}
+
+	/**
+	 * @param nacCount The number of NACs per rule, at least 0.
+	 */
+	public void setNacCount(int nacCount) {
+		if (nacCount < 0)
+			throw new IllegalArgumentException("Number of NACs must not be negative: " + nacCount);
+		this.nacCount = nacCount;
+	}
+
+	/**
+	 * Sets the fraction of LHS nodes that are deleted. Together with the RHS size this determines the
+	 * ratio of deleting to creating actions: with an LHS and RHS of equal size every deleted node is
+	 * balanced by a created one.
+	 *
+	 * @param deleteRatio The fraction of deleted LHS nodes, between 0 and 1.
+	 */
+	public void setDeleteRatio(double deleteRatio) {
+		if (deleteRatio < 0 || deleteRatio > 1)
+			throw new IllegalArgumentException("Delete ratio must be between 0 and 1: " + deleteRatio);
+		this.deleteRatio = deleteRatio;
+	}
+
+	/**
+	 * @param metamodelSize The number of classes in the generated metamodel, at least 1.
+	 */
+	public void setMetamodelSize(int metamodelSize) {
+		if (metamodelSize < 1)
+			throw new IllegalArgumentException("Metamodel size must be at least 1: " + metamodelSize);
+		this.metamodelSize = metamodelSize;
+	}
+
+	/**
+	 * @param seed The seed of the random generator.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Generates a module with its metamodel. The metamodel is imported by the module. The rules can be
+	 * prepared and analysed directly, or saved with {@link #save(Module, String)}.
+	 *
+	 * @return The generated module.
+	 */
+	public Module generate() {
+		Random random = new Random(seed);
+		EPackage metamodel = generateMetamodel(random);
+		Module module = HenshinFactory.eINSTANCE.createModule();
+		module.setName("synthetic");
+		module.getImports().add(metamodel);
+		for (int i = 0; i < ruleCount; i++)
+			module.getUnits().add(generateRule("rule" + i, metamodel, random));
+		return module;
+	}
+
+	/**
+	 * Generates the rules of a module, see {@link #generate()}.
+	 *
+	 * @return The generated rules, in the order of the module.
+	 */
+	public List<Rule> generateRules() {
+		List<Rule> rules = new ArrayList<Rule>();
+		generate().getUnits().forEach(unit -> rules.add((Rule) unit));
+		return rules;
+	}
+
+	/**
+	 * Saves a generated module and its metamodel as {@code synthetic.henshin} and {@code synthetic.ecore}
+	 * into a folder, from where they can be loaded by the detection classes and benchmarks.
+	 *
+	 * @param module The generated module.
+	 * @param folder The target folder.
+	 */
+	public static void save(Module module, String folder) {
+		HenshinResourceSet resourceSet = new HenshinResourceSet(folder);
+		resourceSet.saveEObject(module.getImports().get(0), "synthetic.ecore");
+		resourceSet.saveEObject(module, "synthetic.henshin");
+	}
+
+	/**
+	 * Applies a generator option of the command line to the generator. Recognised are
+	 * {@code --rules}, {@code --lhs}, {@code --rhs}, {@code --nacs}, {@code --delete},
+	 * {@code --metamodel} and {@code --seed}, each followed by its value.
+	 *
+	 * @return The index of the last consumed argument, or -1 if the argument is no generator option.
+	 */
+	static int parseOption(SyntheticRuleGenerator generator, String[] args, int index) {
+		switch (args[index]) {
+		case "--rules":
+			generator.setRuleCount(Integer.parseInt(args[index + 1]));
+			break;
+		case "--lhs":
+			generator.setLhsSize(Integer.parseInt(args[index + 1]));
+			break;
+		case "--rhs":
+			generator.setRhsSize(Integer.parseInt(args[index + 1]));
+			break;
+		case "--nacs":
+			generator.setNacCount(Integer.parseInt(args[index + 1]));
+			break;
+		case "--delete":
+			generator.setDeleteRatio(Double.parseDouble(args[index + 1]));
+			break;
+		case "--metamodel":
+			generator.setMetamodelSize(Integer.parseInt(args[index + 1]));
+			break;
+		case "--seed":
+			generator.setSeed(Long.parseLong(args[index + 1]));
+			break;
+		default:
+			return -1;
+		}
+		return index + 1;
+	}
+
+	private EPackage generateMetamodel(Random random) {
+		EPackage metamodel = EcoreFactory.eINSTANCE.createEPackage();
+		metamodel.setName("synthetic");
+		metamodel.setNsPrefix("synthetic");
+		metamodel.setNsURI("http://synthetic/" + seed + "/" + metamodelSize);
+		List<EClass> classes = new ArrayList<EClass>();
+		for (int i = 0; i < metamodelSize; i++) {
+			EClass eClass = EcoreFactory.eINSTANCE.createEClass();
+			eClass.setName("C" + i);
+			metamodel.getEClassifiers().add(eClass);
+			classes.add(eClass);
+		}
+		for (EClass eClass : classes) {
+			for (int i = 0; i < REFERENCES_PER_CLASS; i++) {
+				EReference reference = EcoreFactory.eINSTANCE.createEReference();
+				reference.setName("r" + i);
+				reference.setEType(classes.get(random.nextInt(classes.size())));
+				reference.setUpperBound(-1);
+				eClass.getEStructuralFeatures().add(reference);
+			}
+		}
+		return metamodel;
+	}
+
+	private Rule generateRule(String name, EPackage metamodel, Random random) {
+		HenshinFactory factory = HenshinFactory.eINSTANCE;
+		Rule rule = factory.createRule(name);
+		Graph lhs = rule.getLhs();
+		Graph rhs = rule.getRhs();
+
+		// LHS: a random tree following the references of the metamodel
+		List<Node> lhsNodes = new ArrayList<Node>();
+		List<Node> rhsImages = new ArrayList<Node>();
+		int deleted = (int) Math.round(lhsSize * deleteRatio);
+		for (int i = 0; i < lhsSize; i++) {
+			Node node;
+			if (lhsNodes.isEmpty()) {
+				EClass type = (EClass) metamodel.getEClassifiers().get(random.nextInt(metamodel.getEClassifiers().size()));
+				node = factory.createNode(lhs, type, "n" + i);
+			} else {
+				Node parent = lhsNodes.get(random.nextInt(lhsNodes.size()));
+				EReference reference = randomReference(parent.getType(), random);
+				node = factory.createNode(lhs, reference.getEReferenceType(), "n" + i);
+				factory.createEdge(parent, node, reference);
+			}
+			lhsNodes.add(node);
+		}
+
+		// the last nodes of the tree are deleted, the others preserved together with their edges
+		for (int i = 0; i < lhsSize; i++) {
+			Node node = lhsNodes.get(i);
+			if (i >= lhsSize - deleted) {
+				rhsImages.add(null);
+				continue;
+			}
+			Node image = factory.createNode(rhs, node.getType(), node.getName());
+			rule.getMappings().add(node, image);
+			rhsImages.add(image);
+		}
+		lhs.getEdges().forEach(edge -> {
+			Node source = rhsImages.get(lhsNodes.indexOf(edge.getSource()));
+			Node target = rhsImages.get(lhsNodes.indexOf(edge.getTarget()));
+			if (source != null && target != null)
+				factory.createEdge(source, target, edge.getType());
+		});
+
+		// created nodes are attached to a preserved or previously created node
+		List<Node> rhsNodes = new ArrayList<Node>(rhs.getNodes());
+		for (int i = rhsNodes.size(); i < rhsSize; i++) {
+			if (rhsNodes.isEmpty()) {
+				EClass type = (EClass) metamodel.getEClassifiers().get(random.nextInt(metamodel.getEClassifiers().size()));
+				rhsNodes.add(factory.createNode(rhs, type, "c" + i));
+				continue;
+			}
+			Node parent = rhsNodes.get(random.nextInt(rhsNodes.size()));
+			EReference reference = randomReference(parent.getType(), random);
+			Node node = factory.createNode(rhs, reference.getEReferenceType(), "c" + i);
+			factory.createEdge(parent, node, reference);
+			rhsNodes.add(node);
+		}
+
+		// each NAC forbids one additional neighbour of an LHS node
+		for (int i = 0; i < nacCount; i++) {
+			NestedCondition nac = lhs.createNAC("nac" + i);
+			Node context = lhsNodes.get(random.nextInt(lhsNodes.size()));
+			Node image = factory.createNode(nac.getConclusion(), context.getType(), context.getName());
+			nac.getMappings().add(context, image);
+			EReference reference = randomReference(context.getType(), random);
+			Node forbidden = factory.createNode(nac.getConclusion(), reference.getEReferenceType(), "f" + i);
+			factory.createEdge(image, forbidden, reference);
+		}
+		return rule;
+	}
+
+	private static EReference randomReference(EClass type, Random random) {
+		List<EReference> references = type.getEAllReferences();
+		return references.get(random.nextInt(references.size()));
+	}
+
+	/**
+	 * Generates a module and saves it into the folder given as last argument, from where it can be
+	 * analysed with e.g. {@code HenshinConflictDetection <folder>}. The generator options are described
+	 * at {@link #parseOption}.
+	 *
+	 * @param args the command-line arguments.
+	 */
+	public static void main(String[] args) {
+		SyntheticRuleGenerator generator = new SyntheticRuleGenerator();
+		String folder = "synthetic";
+		for (int i = 0; i < args.length; i++) {
+			int last = parseOption(generator, args, i);
+			if (last < 0)
+				folder = args[i];
+			else
+				i = last;
+		}
+		new File(folder).mkdirs();
+		save(generator.generate(), folder);
+		System.out.println("Saved " + generator.ruleCount + " rules to " + folder);
+	}
+
+}